@@ -0,0 +1,71 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Points the application at a {@link LocalS3Server} and prepares local image folders.
+ * JMH forks a JVM per parameter combination, so every trial initializes the static application state once.
+ */
+final class BenchmarkEnvironment {
+    private static final PrintStream STDOUT = System.out;
+
+    private BenchmarkEnvironment() {
+    }
+
+    static void start(LocalS3Server server, int transferConcurrency){
+        System.setProperty("aws.accessKeyId", "local");
+        System.setProperty("aws.secretAccessKey", "local");
+        System.setProperty("cloudphoto.s3.endpoint", server.getEndpoint());
+        System.setProperty("cloudphoto.transfer.concurrency", Integer.toString(transferConcurrency));
+        System.setProperty("cloudphoto.tags.concurrency", Integer.toString(transferConcurrency));
+
+        // per-file SUCCESS lines would dominate the measurement
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        Application.init();
+    }
+
+    static void stop(){
+        System.setOut(STDOUT);
+    }
+
+    static Path createImages(int count, int sizeKb) throws IOException {
+        return createImages(count, sizeKb, count);
+    }
+
+    // images of another seed have other content, so they are stored as new blobs instead of being linked
+    static Path createImages(int count, int sizeKb, long seed) throws IOException {
+        Path folder = Files.createTempDirectory("cloudphoto-bench");
+        byte[] content = new byte[sizeKb * 1024];
+        Random random = new Random(seed);
+
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            Files.write(folder.resolve(String.format("image-%06d.jpg", i)), content);
+        }
+        return folder;
+    }
+
+    static void delete(Path folder) throws IOException {
+        if (folder == null){
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-bucket tag scan of {@link Application#getListBucketObjectsByTag}, the path behind reindex
+ * and listings of buckets without an album index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListingBenchmark {
+    private static final int ALBUM_COUNT = 10;
+
+    @Param({"1000", "5000"})
+    public int objectCount;
+
+    @Param({"1", "32"})
+    public int concurrency;
+
+    private LocalS3Server server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalS3Server(64);
+        byte[] content = new byte[1024];
+        for (int i = 0; i < objectCount; i++) {
+            server.putObject(Application.BUCKET_NAME, String.format("image-%06d.jpg", i), content,
+                    Collections.singletonMap("cloudphoto", "album-" + (i % ALBUM_COUNT)));
+        }
+        BenchmarkEnvironment.start(server, concurrency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public long listAlbumImagesByTag(){
+        return Application.getListBucketObjectsByTag("album-0", S3Object.builder().build()).count();
+    }
+}
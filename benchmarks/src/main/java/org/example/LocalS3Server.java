@@ -0,0 +1,490 @@
+package org.example;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process, in-memory stand-in for the subset of the S3 REST API used by cloudphoto (path-style requests only):
+ * buckets, objects with tags, ranged and conditional GET, ListObjectsV2, DeleteObjects and multipart uploads.
+ * Signatures are not checked. Like a busy S3 partition it can answer requests beyond a limit with 503 SlowDown.
+ */
+public class LocalS3Server implements AutoCloseable {
+    private static final String XML_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final Pattern COMPLETED_PART = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Pattern TAG = Pattern.compile("<Tag><Key>(.*?)</Key><Value>(.*?)</Value></Tag>");
+    private static final Pattern DELETED_KEY = Pattern.compile("<Key>(.*?)</Key>");
+    private static final int DEFAULT_MAX_KEYS = 1000;
+
+    private final HttpServer httpServer;
+    private final ExecutorService executorService;
+    private final Map<String, ConcurrentSkipListMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong uploadIds = new AtomicLong();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private volatile int maxRequestsInFlight = Integer.MAX_VALUE;
+
+    private static class StoredObject {
+        final byte[] data;
+        final String eTag;
+        final Map<String, String> tags;
+        final Instant lastModified = Instant.now();
+
+        StoredObject(byte[] data, String eTag, Map<String, String> tags) {
+            this.data = data;
+            this.eTag = eTag;
+            this.tags = tags;
+        }
+    }
+
+    private static class Upload {
+        final String bucket;
+        final String key;
+        final Map<String, String> tags;
+        final Instant initiated = Instant.now();
+        final Map<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+
+        Upload(String bucket, String key, Map<String, String> tags) {
+            this.bucket = bucket;
+            this.key = key;
+            this.tags = tags;
+        }
+    }
+
+    public LocalS3Server(int threads) throws IOException {
+        this.httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.httpServer.setExecutor(executorService);
+        this.httpServer.createContext("/", this::handle);
+        this.httpServer.start();
+    }
+
+    /**
+     * Requests arriving while this many are being served get 503 SlowDown.
+     */
+    public void setMaxRequestsInFlight(int maxRequestsInFlight){
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    public String getEndpoint(){
+        return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Stores an object directly, without going through HTTP, to seed a bucket quickly.
+     */
+    public void putObject(String bucket, String key, byte[] data, Map<String, String> tags){
+        buckets.computeIfAbsent(bucket, n -> new ConcurrentSkipListMap<>())
+                .put(key, new StoredObject(data, "\"" + md5Hex(data) + "\"", new LinkedHashMap<>(tags)));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (exchange.getRequestMethod().equals("HEAD")){
+                // the JDK server drops the connection after a HEAD answer, a client reusing it would fail and retry
+                exchange.getResponseHeaders().set("Connection", "close");
+            }
+            if (requestsInFlight.incrementAndGet() > maxRequestsInFlight){
+                readBody(exchange);
+                sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+                return;
+            }
+            String path = exchange.getRequestURI().getRawPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String[] segments = path.substring(1).split("/", 2);
+            String bucket = decode(segments[0]);
+            String key = segments.length > 1 ? decode(segments[1]) : "";
+
+            if (bucket.isEmpty()){
+                listBuckets(exchange);
+            }else if (key.isEmpty()){
+                handleBucket(exchange, bucket, query);
+            }else {
+                handleObject(exchange, bucket, key, query);
+            }
+        } catch (RuntimeException exception) {
+            sendError(exchange, 500, "InternalError", String.valueOf(exception));
+        } finally {
+            requestsInFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void handleBucket(HttpExchange exchange, String bucket, Map<String, String> query) throws IOException {
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("PUT")){
+            readBody(exchange);
+            buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<>());
+            sendEmpty(exchange, 200);
+            return;
+        }
+
+        ConcurrentSkipListMap<String, StoredObject> objects = buckets.get(bucket);
+        if (objects == null){
+            sendError(exchange, 404, "NoSuchBucket", bucket);
+        }else if (method.equals("HEAD")){
+            sendEmpty(exchange, 200);
+        }else if (method.equals("GET") && query.containsKey("uploads")){
+            listMultipartUploads(exchange, bucket);
+        }else if (method.equals("POST") && query.containsKey("delete")){
+            Matcher matcher = DELETED_KEY.matcher(new String(readBody(exchange), StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                objects.remove(unescape(matcher.group(1)));
+            }
+            sendXml(exchange, 200, "<DeleteResult xmlns=\"" + XML_NAMESPACE + "\"></DeleteResult>");
+        }else if (method.equals("GET")){
+            listObjects(exchange, bucket, objects, query);
+        }else {
+            sendError(exchange, 405, "MethodNotAllowed", method);
+        }
+    }
+
+    private void handleObject(HttpExchange exchange, String bucket, String key, Map<String, String> query) throws IOException {
+        ConcurrentSkipListMap<String, StoredObject> objects = buckets.get(bucket);
+        if (objects == null){
+            sendError(exchange, 404, "NoSuchBucket", bucket);
+            return;
+        }
+
+        String method = exchange.getRequestMethod();
+        if (method.equals("POST") && query.containsKey("uploads")){
+            String uploadId = Long.toString(uploadIds.incrementAndGet());
+            uploads.put(uploadId, new Upload(bucket, key, parseTags(exchange.getRequestHeaders().getFirst("x-amz-tagging"))));
+            sendXml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + XML_NAMESPACE + "\"><Bucket>" + escape(bucket)
+                    + "</Bucket><Key>" + escape(key) + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+        }else if (query.containsKey("uploadId")){
+            handleUploadPart(exchange, objects, key, query);
+        }else if (method.equals("PUT") && query.containsKey("tagging")){
+            Map<String, String> tags = new LinkedHashMap<>();
+            Matcher matcher = TAG.matcher(new String(readBody(exchange), StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                tags.put(unescape(matcher.group(1)), unescape(matcher.group(2)));
+            }
+            StoredObject storedObject = objects.computeIfPresent(key, (n, stored) -> new StoredObject(stored.data, stored.eTag, tags));
+            if (storedObject == null){
+                sendError(exchange, 404, "NoSuchKey", key);
+            }else {
+                sendEmpty(exchange, 200);
+            }
+        }else if (method.equals("PUT")){
+            byte[] data = readBody(exchange);
+            StoredObject storedObject = new StoredObject(data, "\"" + md5Hex(data) + "\"",
+                    parseTags(exchange.getRequestHeaders().getFirst("x-amz-tagging")));
+            String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            boolean ifNoneMatch = "*".equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            StoredObject current = objects.compute(key, (n, stored) ->
+                    ifMatch != null && (stored == null || !stored.eTag.equals(ifMatch)) || ifNoneMatch && stored != null
+                            ? stored : storedObject);
+            if (current != storedObject){
+                sendError(exchange, 412, "PreconditionFailed", "If-Match");
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", storedObject.eTag);
+            sendEmpty(exchange, 200);
+        }else if (method.equals("DELETE")){
+            String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            StoredObject current = objects.computeIfPresent(key, (n, stored) -> ifMatch == null || stored.eTag.equals(ifMatch) ? null : stored);
+            if (current != null){
+                sendError(exchange, 412, "PreconditionFailed", "If-Match");
+                return;
+            }
+            sendEmpty(exchange, 204);
+        }else {
+            StoredObject storedObject = objects.get(key);
+            if (storedObject == null){
+                sendError(exchange, 404, "NoSuchKey", key);
+            }else if (query.containsKey("tagging")){
+                StringBuilder xml = new StringBuilder("<Tagging xmlns=\"" + XML_NAMESPACE + "\"><TagSet>");
+                storedObject.tags.forEach((tagKey, tagValue) -> xml.append("<Tag><Key>").append(escape(tagKey))
+                        .append("</Key><Value>").append(escape(tagValue)).append("</Value></Tag>"));
+                sendXml(exchange, 200, xml.append("</TagSet></Tagging>").toString());
+            }else {
+                sendObject(exchange, storedObject);
+            }
+        }
+    }
+
+    private void handleUploadPart(HttpExchange exchange, ConcurrentSkipListMap<String, StoredObject> objects, String key, Map<String, String> query) throws IOException {
+        Upload upload = uploads.get(query.get("uploadId"));
+        if (upload == null){
+            sendError(exchange, 404, "NoSuchUpload", query.get("uploadId"));
+            return;
+        }
+
+        String method = exchange.getRequestMethod();
+        if (method.equals("PUT")){
+            byte[] data = readBody(exchange);
+            upload.parts.put(Integer.parseInt(query.get("partNumber")), data);
+            exchange.getResponseHeaders().set("ETag", "\"" + md5Hex(data) + "\"");
+            sendEmpty(exchange, 200);
+        }else if (method.equals("DELETE")){
+            uploads.remove(query.get("uploadId"));
+            sendEmpty(exchange, 204);
+        }else {
+            Matcher matcher = COMPLETED_PART.matcher(new String(readBody(exchange), StandardCharsets.UTF_8));
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            ByteArrayOutputStream partDigests = new ByteArrayOutputStream();
+            int partCount = 0;
+            while (matcher.find()) {
+                byte[] part = upload.parts.get(Integer.parseInt(matcher.group(1)));
+                content.write(part);
+                partDigests.write(Checksums.newDigest("MD5").digest(part));
+                partCount++;
+            }
+            uploads.remove(query.get("uploadId"));
+
+            String eTag = "\"" + md5Hex(partDigests.toByteArray()) + "-" + partCount + "\"";
+            objects.put(key, new StoredObject(content.toByteArray(), eTag, upload.tags));
+            sendXml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + XML_NAMESPACE + "\"><Bucket>" + escape(upload.bucket)
+                    + "</Bucket><Key>" + escape(key) + "</Key><ETag>" + escape(eTag) + "</ETag></CompleteMultipartUploadResult>");
+        }
+    }
+
+    private void sendObject(HttpExchange exchange, StoredObject storedObject) throws IOException {
+        Headers requestHeaders = exchange.getRequestHeaders();
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("ETag", storedObject.eTag);
+        responseHeaders.set("Last-Modified", java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(storedObject.lastModified.atZone(java.time.ZoneOffset.UTC)));
+        responseHeaders.set("Accept-Ranges", "bytes");
+
+        if (storedObject.eTag.equals(requestHeaders.getFirst("If-None-Match"))){
+            sendEmpty(exchange, 304);
+            return;
+        }
+        String ifMatch = requestHeaders.getFirst("If-Match");
+        if (ifMatch != null && !storedObject.eTag.equals(ifMatch)){
+            sendError(exchange, 412, "PreconditionFailed", "If-Match");
+            return;
+        }
+
+        int start = 0;
+        int end = storedObject.data.length - 1;
+        int status = 200;
+        String range = requestHeaders.getFirst("Range");
+        if (range != null){
+            Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches()){
+                if (matcher.group(1).isEmpty()){
+                    start = Math.max(0, storedObject.data.length - Integer.parseInt(matcher.group(2)));
+                }else {
+                    start = Integer.parseInt(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()){
+                        end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                    }
+                }
+                status = 206;
+                responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + storedObject.data.length);
+            }
+        }
+
+        int length = Math.max(0, end - start + 1);
+        responseHeaders.set("Content-Type", "application/octet-stream");
+        if (exchange.getRequestMethod().equals("HEAD")){
+            responseHeaders.set("Content-Length", Integer.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(storedObject.data, start, length);
+        }
+    }
+
+    private void listBuckets(HttpExchange exchange) throws IOException {
+        StringBuilder xml = new StringBuilder("<ListAllMyBucketsResult xmlns=\"" + XML_NAMESPACE + "\"><Owner><ID>local</ID></Owner><Buckets>");
+        for (String bucket : buckets.keySet()) {
+            xml.append("<Bucket><Name>").append(escape(bucket)).append("</Name><CreationDate>")
+                    .append(Instant.now()).append("</CreationDate></Bucket>");
+        }
+        sendXml(exchange, 200, xml.append("</Buckets></ListAllMyBucketsResult>").toString());
+    }
+
+    private void listObjects(HttpExchange exchange, String bucket, ConcurrentSkipListMap<String, StoredObject> objects, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.get("delimiter");
+        int maxKeys = query.containsKey("max-keys") ? Integer.parseInt(query.get("max-keys")) : DEFAULT_MAX_KEYS;
+        String after = query.containsKey("continuation-token") ? query.get("continuation-token") : query.get("start-after");
+
+        StringBuilder contents = new StringBuilder();
+        Set<String> commonPrefixes = new TreeSet<>();
+        int keyCount = 0;
+        String lastKey = null;
+        boolean truncated = false;
+
+        Map<String, StoredObject> candidates = after == null || after.compareTo(prefix) < 0
+                ? objects.tailMap(prefix, true)
+                : objects.tailMap(after, false);
+        for (Map.Entry<String, StoredObject> object : candidates.entrySet()) {
+            String key = object.getKey();
+            if (!key.startsWith(prefix)){
+                break;
+            }
+            if (keyCount >= maxKeys){
+                truncated = true;
+                break;
+            }
+            int delimiterIndex = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (delimiterIndex >= 0){
+                commonPrefixes.add(key.substring(0, delimiterIndex + delimiter.length()));
+            }else {
+                contents.append("<Contents><Key>").append(escape(key)).append("</Key><LastModified>")
+                        .append(object.getValue().lastModified).append("</LastModified><ETag>")
+                        .append(escape(object.getValue().eTag)).append("</ETag><Size>")
+                        .append(object.getValue().data.length).append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+            }
+            keyCount++;
+            lastKey = key;
+        }
+
+        StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"" + XML_NAMESPACE + "\"><Name>").append(escape(bucket))
+                .append("</Name><Prefix>").append(escape(prefix)).append("</Prefix><KeyCount>").append(keyCount)
+                .append("</KeyCount><MaxKeys>").append(maxKeys).append("</MaxKeys><IsTruncated>").append(truncated)
+                .append("</IsTruncated>");
+        if (truncated){
+            xml.append("<NextContinuationToken>").append(escape(lastKey)).append("</NextContinuationToken>");
+        }
+        xml.append(contents);
+        for (String commonPrefix : commonPrefixes) {
+            xml.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix)).append("</Prefix></CommonPrefixes>");
+        }
+        sendXml(exchange, 200, xml.append("</ListBucketResult>").toString());
+    }
+
+    private void listMultipartUploads(HttpExchange exchange, String bucket) throws IOException {
+        StringBuilder xml = new StringBuilder("<ListMultipartUploadsResult xmlns=\"" + XML_NAMESPACE + "\"><Bucket>")
+                .append(escape(bucket)).append("</Bucket><IsTruncated>false</IsTruncated>");
+        uploads.forEach((uploadId, upload) -> {
+            if (upload.bucket.equals(bucket)){
+                xml.append("<Upload><Key>").append(escape(upload.key)).append("</Key><UploadId>").append(uploadId)
+                        .append("</UploadId><Initiated>").append(upload.initiated).append("</Initiated></Upload>");
+            }
+        });
+        sendXml(exchange, 200, xml.append("</ListMultipartUploadsResult>").toString());
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = exchange.getRequestBody()) {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                body.write(buffer, 0, count);
+            }
+        }
+
+        Headers headers = exchange.getRequestHeaders();
+        String contentSha = headers.getFirst("x-amz-content-sha256");
+        String contentEncoding = headers.getFirst("Content-Encoding");
+        boolean chunked = (contentSha != null && contentSha.startsWith("STREAMING-"))
+                || (contentEncoding != null && contentEncoding.contains("aws-chunked"));
+        return chunked ? decodeAwsChunked(body.toByteArray()) : body.toByteArray();
+    }
+
+    // "<hex size>;chunk-signature=...\r\n<data>\r\n" repeated until a chunk of size 0
+    private static byte[] decodeAwsChunked(byte[] encoded){
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(encoded.length);
+        int position = 0;
+        while (position < encoded.length) {
+            int lineEnd = position;
+            while (lineEnd + 1 < encoded.length && !(encoded[lineEnd] == '\r' && encoded[lineEnd + 1] == '\n')) {
+                lineEnd++;
+            }
+            String header = new String(encoded, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";", 2)[0].trim(), 16);
+            if (size == 0){
+                break;
+            }
+            decoded.write(encoded, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+        return decoded.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery){
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null && !rawQuery.isEmpty()){
+            for (String parameter : rawQuery.split("&")) {
+                String[] pair = parameter.split("=", 2);
+                query.put(decode(pair[0]), pair.length > 1 ? decode(pair[1]) : "");
+            }
+        }
+        return query;
+    }
+
+    private static Map<String, String> parseTags(String tagging){
+        Map<String, String> tags = new LinkedHashMap<>();
+        if (tagging != null && !tagging.isEmpty()){
+            tags.putAll(parseQuery(tagging));
+        }
+        return tags;
+    }
+
+    private static String decode(String value){
+        try {
+            return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException unsupportedEncodingException) {
+            throw new IllegalStateException(unsupportedEncodingException);
+        }
+    }
+
+    private static String escape(String value){
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String value){
+        return value.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    private static String md5Hex(byte[] data){
+        return Checksums.toHex(Checksums.newDigest("MD5").digest(data));
+    }
+
+    private static void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        if (exchange.getRequestMethod().equals("HEAD")){
+            sendEmpty(exchange, status);
+            return;
+        }
+        sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message></Error>");
+    }
+}
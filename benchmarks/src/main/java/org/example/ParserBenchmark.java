@@ -0,0 +1,119 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CommandParser} and {@link Application#isImageName} against the regular expressions they replaced,
+ * copied from Application as it was before the change, dead code left out: a REPL line validated by
+ * {@code String.matches} and split several times, and every key of a transfer matched with the backtracking
+ * image name pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+    private static final String IMAGE_EXTENSION_JPG = "jpg";
+    private static final String IMAGE_EXTENSION_JPEG = "jpeg";
+    private static final String IMAGE_EXTENSION_PNG = "png";
+    private static final String DELIMITER_WHITESPACE = "ᴥ";
+    private static final String WHITESPACE = " ";
+    private static final String REGEX_USER_INPUT_DATA = "^\\s*cloudphoto\\s+((((upload|download|sync)\\s+-p\\s+(\\\\*\\/*\\b((\\S+\\s*)|(\\s*\\S+))\\b\\/*\\\\*)*\\s+-a\\s+\\b\\S+\\b(\\s+-d\\s+(upload|download))?(\\s+-r)?\\s*$)|(list\\s*($|-a\\s+\\S+\\s*$)))|(exit|reindex)\\s*$)";
+    private static final String REGEX_IMAGE_NAME = "([^\\s]+(\\s{0,10}\\S\\s{0,10})+(\\.(?i)(" + IMAGE_EXTENSION_JPG + "|" + IMAGE_EXTENSION_PNG + "|" + IMAGE_EXTENSION_JPEG + "))$)";
+    private static final int PATH_INDEX = 1; // index of string array that contains -p value(path) for replacing whitespaces
+
+    @Param({"cloudphoto upload -p /home/username/photos/2020 summer trip/ -a holiday -r"})
+    public String commandLine;
+
+    @Param({"10000"})
+    public int keyCount;
+
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            // mostly images, some long names with spaces and some other files, as in real photo folders
+            keys[i] = i % 10 == 0
+                    ? String.format("%04d/%02d/IMG %06d edited copy of the final version.mov", 2000 + i % 20, i % 12 + 1, i)
+                    : String.format("%04d/%02d/IMG_%06d.jpg", 2000 + i % 20, i % 12 + 1, i);
+        }
+    }
+
+    @Benchmark
+    public Command parseCommand(){
+        return CommandParser.parse(commandLine);
+    }
+
+    @Benchmark
+    public Command parseCommandRegex(){
+        return isValidCommandInputData(commandLine) ? getCommandType(commandLine) : null;
+    }
+
+    @Benchmark
+    public void filterImageNames(Blackhole blackhole){
+        for (String key : keys) {
+            blackhole.consume(Application.isImageName(key));
+        }
+    }
+
+    @Benchmark
+    public void filterImageNamesRegex(Blackhole blackhole){
+        for (String key : keys) {
+            blackhole.consume(key.matches(REGEX_IMAGE_NAME));
+        }
+    }
+
+    private static boolean isValidCommandInputData(String inputData){
+        return inputData.matches(REGEX_USER_INPUT_DATA);
+    }
+
+    private static Command getCommandType(String inputData){
+        boolean flag = inputData.contains(Argument.PATH.getArgumentName());
+
+        String[] filteredData = flag
+                ? whiteSpaceFilter(replaceWhitespacesInPath(inputData))
+                : whiteSpaceFilter(inputData);
+
+        CommandType commandType = CommandType.valueOf(filteredData[1].toUpperCase());
+        Command command = new Command(commandType);
+
+        if (filteredData[filteredData.length - 1].equals(Argument.RECURSIVE.getArgumentName())){
+            command.setParameter(Argument.RECURSIVE.getArgumentName(), Boolean.TRUE.toString());
+            filteredData = Arrays.copyOf(filteredData, filteredData.length - 1);
+        }
+
+        for (int i = 1; i < filteredData.length-1; i = i + 2) {
+            filteredData[i+2] = flag
+                    ? filteredData[i+2].replace(DELIMITER_WHITESPACE, WHITESPACE)
+                    : filteredData[i+2];
+            command.setParameter( filteredData[i+1], filteredData[i+2]);//[i+1]=key [i+2]=value for argument.For example -a albumName
+        }
+        return command;
+    }
+
+    private static String replaceWhitespacesInPath(String inputData){
+        String pathWithWhitespaces = findPath(inputData).trim();
+        String modifiedPath = pathWithWhitespaces.replace(WHITESPACE, DELIMITER_WHITESPACE);
+        return inputData.replace(pathWithWhitespaces, modifiedPath);
+    }
+
+    private static String findPath(String inputData){
+        return inputData
+                .split( Argument.PATH.getArgumentName() + "|" + Argument.ALBUM.getArgumentName())[PATH_INDEX];
+    }
+
+
+    private static String[] whiteSpaceFilter(String inputData){
+        return Arrays.stream(inputData.split(WHITESPACE))
+                .filter(n -> !n.isEmpty())
+                .toArray(String[]::new);
+    }
+}
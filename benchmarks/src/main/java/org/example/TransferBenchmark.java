@@ -0,0 +1,92 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Album upload and download through the regular command path against the local S3 stand-in.
+ * Time is per whole album, divide objectCount * objectSizeKb by it for throughput.
+ * {@code upload} sends images with new content on every call, {@code uploadLinked} uploads images whose
+ * blobs are stored already, which costs a HeadObject and an index entry per image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+    private static final String UPLOAD_ALBUM = "bench-upload";
+    private static final String LINKED_ALBUM = "bench-linked";
+    private static final String DOWNLOAD_ALBUM = "bench-download";
+
+    @Param({"100"})
+    public int objectCount;
+
+    @Param({"64", "1024"})
+    public int objectSizeKb;
+
+    @Param({"1", "16"})
+    public int concurrency;
+
+    private LocalS3Server server;
+    private Path sourceFolder;
+    private Path targetFolder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalS3Server(64);
+        BenchmarkEnvironment.start(server, concurrency);
+        sourceFolder = BenchmarkEnvironment.createImages(objectCount, objectSizeKb);
+        targetFolder = Files.createTempDirectory("cloudphoto-bench-download");
+        Application.execute("cloudphoto upload -p " + sourceFolder + " -a " + DOWNLOAD_ALBUM);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkEnvironment.stop();
+        server.close();
+        BenchmarkEnvironment.delete(sourceFolder);
+        BenchmarkEnvironment.delete(targetFolder);
+    }
+
+    /**
+     * Images with new content for every call. The album is deleted after the call, so the stand-in bucket
+     * does not grow with every invocation; both happen outside the measured time.
+     */
+    @State(Scope.Thread)
+    public static class FreshImages {
+        private long seed = System.nanoTime();
+        private Path folder;
+
+        @Setup(Level.Invocation)
+        public void create(TransferBenchmark benchmark) throws IOException {
+            folder = BenchmarkEnvironment.createImages(benchmark.objectCount, benchmark.objectSizeKb, ++seed);
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws IOException {
+            Application.execute("cloudphoto album delete -a " + UPLOAD_ALBUM);
+            BenchmarkEnvironment.delete(folder);
+        }
+    }
+
+    @Benchmark
+    public void upload(FreshImages images){
+        Application.execute("cloudphoto upload -p " + images.folder + " -a " + UPLOAD_ALBUM);
+    }
+
+    @Benchmark
+    public void uploadLinked(){
+        Application.execute("cloudphoto upload -p " + sourceFolder + " -a " + LINKED_ALBUM);
+    }
+
+    @Benchmark
+    public void download(){
+        Application.execute("cloudphoto download -p " + targetFolder + " -a " + DOWNLOAD_ALBUM);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD limit on storage requests in flight. The limit starts at the maximum, is halved when S3 answers
+ * with SlowDown and grows back by one per limit's worth of successful requests, so the request rate settles
+ * just below what the bucket partition sustains instead of failing. Throttling answers to requests that were
+ * already in flight before the last decrease do not shrink the limit again.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long decreasedAt = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = this.maxLimit;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized void release(){
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized void onSuccess(){
+        limit = Math.min(maxLimit, limit + 1 / limit);
+        notifyAll();
+    }
+
+    public synchronized void onThrottle(){
+        long now = System.nanoTime();
+        if (now - decreasedAt < DECREASE_INTERVAL_NANOS){
+            return;
+        }
+        decreasedAt = now;
+        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+    }
+
+    public synchronized int getLimit(){
+        return (int) limit;
+    }
+}
@@ -0,0 +1,356 @@
+package org.example;
+
+import org.example.storage.ObjectContent;
+import org.example.storage.StorageBackend;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Album index stored in the bucket itself: one small text object per album under {@link #INDEX_PREFIX}.
+ * Every line of an index object describes one image of the album (name, size, ETag and the key of the object
+ * holding the content, usually a shared content-addressed blob), so listing albums
+ * costs one ListObjectsV2 page per 1000 albums and resolving album -> keys costs a single GET
+ * instead of one GetObjectTagging request per object in the bucket.
+ */
+public class AlbumIndex {
+    public static final String INDEX_PREFIX = "cloudphoto-index/";
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final char LINE_SEPARATOR = '\n';
+    private static final char ESCAPE = '\\';
+    private static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+    private static final int MAX_WRITE_ATTEMPTS = 10;
+
+    private final StorageBackend storage;
+    private final MetadataCache metadataCache;
+
+    public AlbumIndex(StorageBackend storage, MetadataCache metadataCache) {
+        this.storage = storage;
+        this.metadataCache = metadataCache;
+    }
+
+    public static class Entry {
+        private final String key;
+        private final long size;
+        private final String eTag;
+        private final String blobKey;
+
+        // image stored under its own name, as uploaded before content addressing
+        public Entry(String key, long size, String eTag) {
+            this(key, size, eTag, key);
+        }
+
+        public Entry(String key, long size, String eTag, String blobKey) {
+            this.key = key;
+            this.size = size;
+            this.eTag = eTag;
+            this.blobKey = blobKey;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        // key of the object with the image content
+        public String getBlobKey() {
+            return blobKey;
+        }
+    }
+
+    public static boolean isIndexKey(String key){
+        return key.startsWith(INDEX_PREFIX);
+    }
+
+    /**
+     * Album names as they were written to the index, in key order. Pages are requested lazily while the stream
+     * is consumed and a completely consumed listing is kept in the metadata cache.
+     */
+    public Stream<String> listAlbums(){
+        List<String> cachedNames = metadataCache.getAlbumNames();
+        if (cachedNames != null){
+            return cachedNames.stream();
+        }
+
+        Iterator<String> pagedNames = storage.listObjects(INDEX_PREFIX)
+                .map(n -> n.key().substring(INDEX_PREFIX.length()))
+                .iterator();
+
+        List<String> listedNames = new ArrayList<>();
+        Iterator<String> cachingIterator = new Iterator<String>() {
+            private boolean cached;
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = pagedNames.hasNext();
+                if (!hasNext && !cached){
+                    metadataCache.putAlbumNames(listedNames);
+                    cached = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public String next() {
+                String name = pagedNames.next();
+                listedNames.add(name);
+                return name;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cachingIterator, Spliterator.ORDERED), false);
+    }
+
+    public boolean isEmpty(){
+        List<String> cachedNames = metadataCache.getAlbumNames();
+        if (cachedNames != null){
+            return cachedNames.isEmpty();
+        }
+
+        return !storage.listObjects(INDEX_PREFIX).findFirst().isPresent();
+    }
+
+    /**
+     * Entries of every album whose name matches {@code album} ignoring case, the same way album tags are matched.
+     */
+    public List<Entry> getEntries(String album){
+        return getEntries(album, false);
+    }
+
+    /**
+     * @param revalidate check cached albums against the bucket even if they are younger than the TTL,
+     *                   needed before objects are deleted because no album refers to them
+     */
+    public List<Entry> getEntries(String album, boolean revalidate){
+        Map<String, Entry> entries = new LinkedHashMap<>();
+
+        listAlbums()
+                .filter(n -> n.equalsIgnoreCase(album))
+                .forEach(indexedAlbum -> {
+                    for (Entry entry : readAlbum(indexedAlbum, revalidate)) {
+                        entries.put(entry.getKey(), entry);
+                    }
+                });
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Names of the indexed albums that match {@code album} ignoring case.
+     */
+    public List<String> findAlbums(String album){
+        return listAlbums()
+                .filter(n -> n.equalsIgnoreCase(album))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Adds (or replaces, by key) entries of the album and writes the index object back. The write is conditional
+     * on the ETag that was read: when another process changed the index in between, it is read and merged again,
+     * so concurrent uploads to the same album do not lose each other's entries.
+     *
+     * @return entries that were replaced by an entry of the same key with another object, e.g. an edited photo
+     */
+    public synchronized List<Entry> addEntries(String album, Collection<Entry> newEntries){
+        if (newEntries.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            MetadataCache.CachedAlbum indexedAlbum = readVersion(album, true);
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            if (indexedAlbum != null){
+                indexedAlbum.getEntries().forEach(n -> entries.put(n.getKey(), n));
+            }
+            List<Entry> replacedEntries = new ArrayList<>();
+            for (Entry entry : newEntries) {
+                Entry replacedEntry = entries.put(entry.getKey(), entry);
+                if (replacedEntry != null && !replacedEntry.getBlobKey().equals(entry.getBlobKey())){
+                    replacedEntries.add(replacedEntry);
+                }
+            }
+
+            String eTag = storage.putObjectIfMatch(INDEX_PREFIX + album, encode(entries.values()).getBytes(StandardCharsets.UTF_8),
+                    CONTENT_TYPE, indexedAlbum == null ? null : indexedAlbum.getETag());
+            if (eTag != null){
+                metadataCache.putAlbum(album, eTag, new ArrayList<>(entries.values()));
+                return replacedEntries;
+            }
+            if (attempt >= MAX_WRITE_ATTEMPTS){
+                throw SdkClientException.create("Album index of \"" + album + "\" keeps changing, try again");
+            }
+        }
+    }
+
+    /**
+     * Removes the entries from the album, conditional like {@link #addEntries}: an entry another process added
+     * or replaced in the meantime stays. An album left without entries is removed from the index.
+     */
+    public synchronized void removeEntries(String album, Collection<Entry> removedEntries){
+        Map<String, String> removedBlobKeys = new HashMap<>();
+        removedEntries.forEach(n -> removedBlobKeys.put(n.getKey(), n.getBlobKey()));
+
+        for (int attempt = 1; ; attempt++) {
+            MetadataCache.CachedAlbum indexedAlbum = readVersion(album, true);
+            if (indexedAlbum == null){
+                return;
+            }
+            List<Entry> entries = indexedAlbum.getEntries().stream()
+                    .filter(n -> !n.getBlobKey().equals(removedBlobKeys.get(n.getKey())))
+                    .collect(Collectors.toList());
+            if (entries.size() == indexedAlbum.getEntries().size()){
+                return;
+            }
+
+            if (entries.isEmpty()){
+                if (storage.deleteObjectIfMatch(INDEX_PREFIX + album, indexedAlbum.getETag())){
+                    metadataCache.removeAlbum(album);
+                    return;
+                }
+            }else {
+                String eTag = storage.putObjectIfMatch(INDEX_PREFIX + album, encode(entries).getBytes(StandardCharsets.UTF_8),
+                        CONTENT_TYPE, indexedAlbum.getETag());
+                if (eTag != null){
+                    metadataCache.putAlbum(album, eTag, entries);
+                    return;
+                }
+            }
+            if (attempt >= MAX_WRITE_ATTEMPTS){
+                throw SdkClientException.create("Album index of \"" + album + "\" keeps changing, try again");
+            }
+        }
+    }
+
+    /**
+     * Replaces the whole index with the given album -> entries mapping, removing index objects of albums that are gone.
+     */
+    public synchronized void rebuild(Map<String, List<Entry>> albums){
+        metadataCache.clear();
+        for (String album : listAlbums().collect(Collectors.toList())) {
+            if (!albums.containsKey(album)){
+                storage.deleteObject(INDEX_PREFIX + album);
+            }
+        }
+        metadataCache.putAlbumNames(new ArrayList<>(albums.keySet()));
+
+        for (Map.Entry<String, List<Entry>> album : albums.entrySet()) {
+            writeAlbum(album.getKey(), album.getValue());
+        }
+    }
+
+    private List<Entry> readAlbum(String album, boolean revalidate){
+        MetadataCache.CachedAlbum indexedAlbum = readVersion(album, revalidate);
+        return indexedAlbum == null ? new ArrayList<>() : indexedAlbum.getEntries();
+    }
+
+    /**
+     * Entries together with the ETag of the index object they were read from, null when the album has no index object.
+     *
+     * @param revalidate check the cached copy against the bucket even if it is younger than the TTL,
+     *                   needed before the album index is modified
+     */
+    private MetadataCache.CachedAlbum readVersion(String album, boolean revalidate){
+        MetadataCache.CachedAlbum cachedAlbum = metadataCache.getAlbum(album);
+        if (cachedAlbum != null && !revalidate && metadataCache.isFresh(cachedAlbum)){
+            return cachedAlbum;
+        }
+
+        ObjectContent objectContent = storage.getObjectContent(INDEX_PREFIX + album, cachedAlbum != null ? cachedAlbum.getETag() : null);
+        if (objectContent == null){
+            metadataCache.removeAlbum(album);
+            return null;
+        }
+        if (objectContent.isNotModified()){
+            metadataCache.revalidated(cachedAlbum);
+            return cachedAlbum;
+        }
+
+        List<Entry> entries = decode(new String(objectContent.getContent(), StandardCharsets.UTF_8));
+        metadataCache.putAlbum(album, objectContent.getETag(), entries);
+        return new MetadataCache.CachedAlbum(entries, objectContent.getETag(), System.currentTimeMillis());
+    }
+
+    private void writeAlbum(String album, Collection<Entry> entries){
+        String eTag = storage.putObject(INDEX_PREFIX + album, encode(entries).getBytes(StandardCharsets.UTF_8), CONTENT_TYPE);
+        // write-through, the next listing of the album needs no request
+        metadataCache.putAlbum(album, eTag, new ArrayList<>(entries));
+    }
+
+    private static String encode(Collection<Entry> entries){
+        StringBuilder builder = new StringBuilder();
+        for (Entry entry : entries) {
+            appendEscaped(builder, entry.getKey());
+            builder.append(FIELD_SEPARATOR).append(entry.getSize()).append(FIELD_SEPARATOR);
+            appendEscaped(builder, entry.getETag() == null ? "" : entry.getETag());
+            builder.append(FIELD_SEPARATOR);
+            appendEscaped(builder, entry.getBlobKey());
+            builder.append(LINE_SEPARATOR);
+        }
+        return builder.toString();
+    }
+
+    private static List<Entry> decode(String content){
+        List<Entry> entries = new ArrayList<>();
+
+        for (String line : content.split(String.valueOf(LINE_SEPARATOR))) {
+            if (line.isEmpty()){
+                continue;
+            }
+            String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+            if (fields.length < 3){
+                continue; // damaged line, "reindex" restores it
+            }
+            String key = unescape(fields[0]);
+            long size;
+            try {
+                size = Long.parseLong(fields[1]);
+            } catch (NumberFormatException numberFormatException) {
+                continue; // damaged size
+            }
+            entries.add(new Entry(key, size, unescape(fields[2]), fields.length > 3 ? unescape(fields[3]) : key));
+        }
+        return entries;
+    }
+
+    static void appendEscaped(StringBuilder builder, String value){
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE){
+                builder.append(ESCAPE).append(ESCAPE);
+            }else if (c == FIELD_SEPARATOR){
+                builder.append(ESCAPE).append('t');
+            }else if (c == LINE_SEPARATOR){
+                builder.append(ESCAPE).append('n');
+            }else {
+                builder.append(c);
+            }
+        }
+    }
+
+    static String unescape(String value){
+        if (value.indexOf(ESCAPE) < 0){
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE && i + 1 < value.length()){
+                char next = value.charAt(++i);
+                builder.append(next == 't' ? FIELD_SEPARATOR : next == 'n' ? LINE_SEPARATOR : next);
+            }else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
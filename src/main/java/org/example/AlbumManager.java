@@ -0,0 +1,276 @@
+package org.example;
+
+import org.example.storage.StorageBackend;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Album commands carried out in the bucket, no image passes through the client. Images are blobs shared
+ * by reference, so a copy only writes index entries. Renaming and merging move the album tag of the objects
+ * to the new album, deleting removes the objects no other album refers to with DeleteObjects requests
+ * of up to 1000 keys. Tag and delete requests run concurrently on the transfer threads.
+ */
+public class AlbumManager {
+    private final StorageBackend storage;
+    private final AlbumIndex albumIndex;
+    private final TransferScheduler transferScheduler;
+
+    public AlbumManager(StorageBackend storage, AlbumIndex albumIndex, TransferScheduler transferScheduler) {
+        this.storage = storage;
+        this.albumIndex = albumIndex;
+        this.transferScheduler = transferScheduler;
+    }
+
+    /**
+     * @param targetAlbum new album name, null for delete
+     * @return image counts, an image fails when its object could not be retagged or deleted
+     */
+    public TransferSummary execute(AlbumOperation operation, String album, String targetAlbum) throws InterruptedException {
+        TransferSummary summary = new TransferSummary();
+        List<AlbumIndex.Entry> entries = albumIndex.getEntries(album);
+        if (entries.isEmpty()){
+            System.out.println(albumIndex.isEmpty() ? "!Album index is empty, run \"cloudphoto reindex\" first" : "!No such album");
+            summary.fail();
+            return summary;
+        }
+        if (operation != AlbumOperation.DELETE && operation != AlbumOperation.RENAME && album.equalsIgnoreCase(targetAlbum)){
+            System.out.println("!Source and target album are the same");
+            summary.fail();
+            return summary;
+        }
+        entries.forEach(n -> summary.addFile());
+
+        switch (operation) {
+            case RENAME:
+                rename(album, targetAlbum, entries, summary);
+                break;
+            case COPY:
+                copy(album, targetAlbum, entries, summary);
+                break;
+            case MERGE:
+                merge(album, targetAlbum, entries, summary);
+                break;
+            case DELETE:
+                delete(album, entries, summary);
+                break;
+        }
+        return summary;
+    }
+
+    private void rename(String album, String targetAlbum, List<AlbumIndex.Entry> entries, TransferSummary summary) throws InterruptedException {
+        if (!album.equalsIgnoreCase(targetAlbum) && !albumIndex.findAlbums(targetAlbum).isEmpty()){
+            System.out.println("!Album \"" + targetAlbum + "\" already exists, use merge");
+            summary.fail();
+            return;
+        }
+        List<String> sourceNames = albumIndex.findAlbums(album);
+
+        // the new index is written before the old one is removed, an interrupted rename leaves both albums
+        albumIndex.addEntries(targetAlbum, entries);
+        TransferScheduler.Batch batch = transferScheduler.newBatch();
+        retag(batch, entries, album, n -> targetAlbum, summary);
+        batch.await();
+        for (String name : sourceNames) {
+            if (!name.equals(targetAlbum)){
+                albumIndex.removeEntries(name, entries);
+            }
+        }
+        System.out.println("Album \"" + album + "\" renamed to \"" + targetAlbum + "\": " + entries.size() + " image(s)");
+    }
+
+    private void copy(String album, String targetAlbum, List<AlbumIndex.Entry> entries, TransferSummary summary){
+        List<AlbumIndex.Entry> copiedEntries = addToAlbum(targetAlbum, entries);
+        copiedEntries.forEach(n -> summary.addSuccess());
+        System.out.println("Album \"" + album + "\" copied to \"" + targetAlbum + "\": " + copiedEntries.size() + " image(s)");
+    }
+
+    private void merge(String album, String targetAlbum, List<AlbumIndex.Entry> entries, TransferSummary summary) throws InterruptedException {
+        List<String> sourceNames = albumIndex.findAlbums(album);
+        List<AlbumIndex.Entry> mergedEntries = addToAlbum(targetAlbum, entries);
+
+        TransferScheduler.Batch batch = transferScheduler.newBatch();
+        retag(batch, mergedEntries, album, n -> targetAlbum, summary);
+        batch.await();
+
+        // images whose name is taken in the target album stay where they are, and so do images uploaded meanwhile
+        for (String name : sourceNames) {
+            albumIndex.removeEntries(name, mergedEntries);
+        }
+        System.out.println("Album \"" + album + "\" merged into \"" + targetAlbum + "\": " + mergedEntries.size() + " image(s)");
+    }
+
+    private void delete(String album, List<AlbumIndex.Entry> entries, TransferSummary summary) throws InterruptedException {
+        List<String> sourceNames = albumIndex.findAlbums(album);
+
+        // objects other albums refer to are kept and handed over to one of those albums
+        Map<String, String> referringAlbums = findReferringAlbums(album);
+        List<AlbumIndex.Entry> sharedEntries = new ArrayList<>();
+        Map<String, List<AlbumIndex.Entry>> orphanEntries = new LinkedHashMap<>();
+        for (AlbumIndex.Entry entry : entries) {
+            if (referringAlbums.containsKey(entry.getBlobKey())){
+                sharedEntries.add(entry);
+            }else {
+                orphanEntries.computeIfAbsent(entry.getBlobKey(), n -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        Set<String> undeletedKeys = ConcurrentHashMap.newKeySet();
+        TransferScheduler.Batch batch = transferScheduler.newBatch();
+        retag(batch, sharedEntries, album, referringAlbums::get, summary);
+        List<String> orphanKeys = new ArrayList<>(orphanEntries.keySet());
+        for (int start = 0; start < orphanKeys.size(); start += StorageBackend.MAX_DELETE_KEYS) {
+            List<String> keys = orphanKeys.subList(start, Math.min(orphanKeys.size(), start + StorageBackend.MAX_DELETE_KEYS));
+            batch.submit(() -> {
+                List<String> failedKeys;
+                try {
+                    failedKeys = storage.deleteObjects(keys);
+                } catch (SdkException sdkException) {
+                    System.out.println("!Cannot delete " + keys.size() + " object(s): " + sdkException.getMessage());
+                    failedKeys = keys;
+                }
+                Set<String> failedKeySet = new HashSet<>(failedKeys);
+                undeletedKeys.addAll(failedKeySet);
+                for (String key : keys) {
+                    if (!failedKeySet.contains(key)){
+                        orphanEntries.get(key).forEach(n -> summary.addSuccess());
+                    }
+                }
+            });
+        }
+        batch.await();
+        deleteThumbnails(orphanKeys, undeletedKeys);
+
+        // images whose objects are still there stay in the album, and so do images uploaded meanwhile
+        List<AlbumIndex.Entry> removedEntries = entries.stream()
+                .filter(n -> !undeletedKeys.contains(n.getBlobKey()))
+                .collect(Collectors.toList());
+        for (String name : sourceNames) {
+            albumIndex.removeEntries(name, removedEntries);
+        }
+        System.out.println("Album \"" + album + "\" deleted: " + (orphanKeys.size() - undeletedKeys.size()) + " object(s) removed, "
+                + sharedEntries.size() + " image(s) kept for other albums");
+    }
+
+    /**
+     * Deletes the objects of replaced images that no album refers to any more, e.g. the old content of a photo
+     * uploaded again under its name after an edit, together with their previews.
+     *
+     * @return number of objects deleted
+     */
+    public int deleteUnreferenced(Collection<AlbumIndex.Entry> replacedEntries) throws InterruptedException {
+        if (replacedEntries.isEmpty()){
+            return 0;
+        }
+        Map<String, String> referringAlbums = findReferringAlbums(null);
+        List<String> unreferencedKeys = replacedEntries.stream()
+                .map(AlbumIndex.Entry::getBlobKey)
+                .filter(n -> !referringAlbums.containsKey(n))
+                .distinct()
+                .collect(Collectors.toList());
+
+        Set<String> undeletedKeys = ConcurrentHashMap.newKeySet();
+        TransferScheduler.Batch batch = transferScheduler.newBatch();
+        for (int start = 0; start < unreferencedKeys.size(); start += StorageBackend.MAX_DELETE_KEYS) {
+            List<String> keys = unreferencedKeys.subList(start, Math.min(unreferencedKeys.size(), start + StorageBackend.MAX_DELETE_KEYS));
+            batch.submit(() -> {
+                try {
+                    undeletedKeys.addAll(storage.deleteObjects(keys));
+                } catch (SdkException sdkException) {
+                    System.out.println("!Cannot delete " + keys.size() + " replaced object(s): " + sdkException.getMessage());
+                    undeletedKeys.addAll(keys);
+                }
+            });
+        }
+        batch.await();
+        deleteThumbnails(unreferencedKeys, undeletedKeys);
+        return unreferencedKeys.size() - undeletedKeys.size();
+    }
+
+    // object key -> an album that refers to it, the albums are revalidated so that a reference added by another
+    // process a moment ago is seen
+    private Map<String, String> findReferringAlbums(String excludedAlbum){
+        Map<String, String> referringAlbums = new HashMap<>();
+        for (String name : albumIndex.listAlbums().collect(Collectors.toList())) {
+            if (excludedAlbum == null || !name.equalsIgnoreCase(excludedAlbum)){
+                albumIndex.getEntries(name, true).forEach(n -> referringAlbums.putIfAbsent(n.getBlobKey(), name));
+            }
+        }
+        return referringAlbums;
+    }
+
+    // previews are only a convenience, one left behind is reported and otherwise ignored
+    private void deleteThumbnails(List<String> deletedKeys, Set<String> undeletedKeys) throws InterruptedException {
+        List<String> thumbnailKeys = deletedKeys.stream()
+                .filter(n -> !undeletedKeys.contains(n))
+                .map(ThumbnailGenerator::getThumbnailKey)
+                .collect(Collectors.toList());
+        TransferScheduler.Batch batch = transferScheduler.newBatch();
+        for (int start = 0; start < thumbnailKeys.size(); start += StorageBackend.MAX_DELETE_KEYS) {
+            List<String> keys = thumbnailKeys.subList(start, Math.min(thumbnailKeys.size(), start + StorageBackend.MAX_DELETE_KEYS));
+            batch.submit(() -> {
+                try {
+                    storage.deleteObjects(keys);
+                } catch (SdkException sdkException) {
+                    System.out.println("!Cannot delete " + keys.size() + " thumbnail(s): " + sdkException.getMessage());
+                }
+            });
+        }
+        batch.await();
+    }
+
+    /**
+     * Adds the entries to the album under its indexed spelling, an entry whose name is taken by another image
+     * is not added.
+     *
+     * @return the added entries
+     */
+    private List<AlbumIndex.Entry> addToAlbum(String targetAlbum, List<AlbumIndex.Entry> entries){
+        List<String> targetNames = albumIndex.findAlbums(targetAlbum);
+        String targetName = targetNames.isEmpty() ? targetAlbum : targetNames.get(0);
+
+        Map<String, AlbumIndex.Entry> targetEntries = new HashMap<>();
+        albumIndex.getEntries(targetAlbum).forEach(n -> targetEntries.put(n.getKey(), n));
+
+        List<AlbumIndex.Entry> addedEntries = new ArrayList<>();
+        for (AlbumIndex.Entry entry : entries) {
+            AlbumIndex.Entry targetEntry = targetEntries.get(entry.getKey());
+            if (targetEntry != null && !targetEntry.getBlobKey().equals(entry.getBlobKey())){
+                System.out.println("!" + entry.getKey() + ": another image of that name is in \"" + targetName + "\"");
+            }else {
+                addedEntries.add(entry);
+            }
+        }
+        albumIndex.addEntries(targetName, addedEntries);
+        return addedEntries;
+    }
+
+    // the album tag marks the album an object was first uploaded to, "reindex" relies on it
+    private void retag(TransferScheduler.Batch batch, List<AlbumIndex.Entry> entries, String album,
+                       Function<String, String> targetAlbum, TransferSummary summary) throws InterruptedException {
+        Map<String, List<AlbumIndex.Entry>> entriesByKey = entries.stream()
+                .collect(Collectors.groupingBy(AlbumIndex.Entry::getBlobKey, LinkedHashMap::new, Collectors.toList()));
+
+        for (Map.Entry<String, List<AlbumIndex.Entry>> keyEntries : entriesByKey.entrySet()) {
+            String key = keyEntries.getKey();
+            batch.submit(() -> {
+                try {
+                    List<Tag> tags = storage.getObjectTags(key);
+                    if (tags.stream().anyMatch(n -> n.key().equalsIgnoreCase(Application.TAG_KEY) && n.value().equalsIgnoreCase(album))){
+                        List<Tag> newTags = tags.stream()
+                                .map(n -> n.key().equalsIgnoreCase(Application.TAG_KEY) ? Tag.builder().key(n.key()).value(targetAlbum.apply(key)).build() : n)
+                                .collect(Collectors.toList());
+                        storage.putObjectTags(key, newTags);
+                    }
+                    keyEntries.getValue().forEach(n -> summary.addSuccess());
+                } catch (SdkException sdkException) {
+                    System.out.println("!Cannot retag " + key + ": " + sdkException.getMessage());
+                }
+            });
+        }
+    }
+}
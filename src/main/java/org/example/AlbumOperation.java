@@ -0,0 +1,19 @@
+package org.example;
+
+import java.util.Locale;
+
+public enum AlbumOperation {
+    RENAME, COPY, MERGE, DELETE;
+
+    /**
+     * @return the operation named {@code name} in lower case, or null
+     */
+    public static AlbumOperation fromName(String name){
+        for (AlbumOperation operation : values()) {
+            if (operation.name().toLowerCase(Locale.ROOT).equals(name)){
+                return operation;
+            }
+        }
+        return null;
+    }
+}
@@ -2,80 +2,260 @@ package org.example;
 
 import org.example.exceptions.InvalidImageExtensionException;
 import org.example.exceptions.NoObjectsException;
+import org.example.storage.MemoryStorageBackend;
+import org.example.storage.MeteredStorageBackend;
+import org.example.storage.ObjectStream;
+import org.example.storage.S3StorageBackend;
+import org.example.storage.StorageBackend;
+import org.example.storage.ThrottledStorageBackend;
+import org.example.storage.ThrottlingInterceptor;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
-import software.amazon.awssdk.core.ResponseBytes;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.waiters.WaiterResponse;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryMode;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.model.Tag;
-import software.amazon.awssdk.services.s3.waiters.S3Waiter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Application {
     private static final Region AWS_REGION = Region.US_WEST_2;
-    private static final String BUCKET_NAME = "arkharov-dias-cloudphoto";
-    private static final String TAG_KEY = "cloudphoto";
-    private static final String DELIMITER_WHITESPACE = "ᴥ";
+    static final String BUCKET_NAME = "arkharov-dias-cloudphoto";
+    static final String TAG_KEY = "cloudphoto";
     private static final char DELIMITER_PATH = '/';
-    private static final String WHITESPACE = " ";
     private static final String IMAGE_EXTENSION_JPG = "jpg";
     private static final String IMAGE_EXTENSION_JPEG = "jpeg";
     private static final String IMAGE_EXTENSION_PNG = "png";
     private static final String MESSAGE_SUCCESS = "+ SUCCESS ------> ";
     private static final String MESSAGE_FAILED = "- FAILED  ------> ";
     private static final String MESSAGE_REASON = "? REASON  ======> ";
-    private static final String REGEX_USER_INPUT_DATA = "^\\s*cloudphoto\\s+((((upload|download)\\s+-p\\s+(\\\\*\\/*\\b((\\S+\\s*)|(\\s*\\S+))\\b\\/*\\\\*)*\\s+-a\\s+\\b\\S+\\b\\s*$)|(list\\s*($|-a\\s+\\S+\\s*$)))|exit\\s*$)";
-    private static final String REGEX_IMAGE_NAME = "([^\\s]+(\\s{0,10}\\S\\s{0,10})+(\\.(?i)(" + IMAGE_EXTENSION_JPG + "|" + IMAGE_EXTENSION_PNG + "|" + IMAGE_EXTENSION_JPEG + "))$)";
-    private static final int PATH_INDEX = 1; // index of string array that contains -p value(path) for replacing whitespaces
+    private static final String MESSAGE_UNCHANGED = "= SKIPPED ------> ";
+    private static final String MESSAGE_LINKED = "+ LINKED  ------> ";
+    private static final String MESSAGE_INDEX_EMPTY = "!Album index is empty, scanning object tags (run \"cloudphoto reindex\" once to make this fast)";
+    private static final String PART_FILE_SUFFIX = ".part";
+    private static final String BLOB_PREFIX = "cloudphoto-blobs/";
+    private static final Duration STALE_MULTIPART_UPLOAD_AGE = Duration.ofDays(1);
     private static S3Client s3Client;
+    private static StorageBackend storage;
+    private static MetadataCache metadataCache;
+    private static AlbumIndex albumIndex;
+    private static TransferScheduler transferScheduler;
+    private static BandwidthLimiter bandwidthLimiter;
+    private static MultipartUploader multipartUploader;
+    private static RangedDownloader rangedDownloader;
+    private static TagResolver tagResolver;
+    private static AlbumManager albumManager;
+    private static ThumbnailGenerator thumbnailGenerator;
+    private static TransferMetrics transferMetrics;
+    private static MetricsReporter metricsReporter;
+    private static AdaptiveConcurrencyLimiter requestLimiter;
 
     public static void main(String[] args){
+        if (args.length > 0 && args[0].equals(DaemonServer.CLIENT_OPTION)){
+            System.exit(sendToDaemon(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length == 1 && args[0].equals(DaemonServer.DAEMON_OPTION)){
+            System.exit(runDaemon());
+        }
+        if (args.length > 0){
+            System.exit(executeBatch(args));
+        }
 
-        Application.init();
+        printIntroductionInfo();
+        if (!Application.init()){
+            System.exit(BatchRunner.EXIT_FAILURE);
+        }
 
         Scanner scanner = new Scanner(System.in);
 
         boolean flag = true;
 
         while (flag){
-            String inputData = scanner.nextLine();
-
-            if (isValidCommandInputData(inputData)){
-                Command command = getCommandType(inputData);
-                switch (command.getCommandType()) {
-                    case UPLOAD:
-                        executeUpload(command);
-                        break;
-                    case DOWNLOAD:
-                        executeDownload(command);
-                        break;
-                    case LIST:
-                        executeListing(command);
-                        break;
-                    case EXIT:
-                        flag = false;
-                        break;
-                    default:
-                        System.out.println("!No such command:");
-                }
-            }else {
-                System.out.println("!Invalid command!");
+            flag = execute(scanner.nextLine());
+        }
+
+        saveMetadataCache();
+        metricsReporter.close();
+    }
+
+    // commands from the program arguments or a script, e.g. from cron; returns the exit code
+    private static int executeBatch(String[] args){
+        List<String> commandLines;
+        try {
+            commandLines = BatchRunner.readCommands(args);
+        } catch (IOException ioException) {
+            System.out.println("!Cannot read commands: " + ioException.getMessage());
+            return BatchRunner.EXIT_FAILURE;
+        }
+
+        if (!Application.init()){
+            return BatchRunner.EXIT_FAILURE;
+        }
+        int exitCode = new BatchRunner(Configuration.getBatchConcurrency()).run(commandLines);
+        saveMetadataCache();
+        metricsReporter.close();
+        return exitCode;
+    }
+
+    // one warm storage client for many short commands, the cache and the metrics are saved when the JVM stops
+    private static int runDaemon(){
+        if (!Application.init()){
+            return BatchRunner.EXIT_FAILURE;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            saveMetadataCache();
+            metricsReporter.close();
+        }, "cloudphoto-shutdown"));
+
+        int port = Configuration.getDaemonPort();
+        try {
+            new DaemonServer(port, Paths.get(Configuration.getDaemonTokenFile())).run();
+            return BatchRunner.EXIT_SUCCESS;
+        } catch (IOException ioException) {
+            System.out.println("!Daemon cannot listen on port " + port + ": " + ioException.getMessage());
+            return BatchRunner.EXIT_FAILURE;
+        }
+    }
+
+    // the client process neither builds a storage client nor checks the bucket, the daemon has done both
+    private static int sendToDaemon(String[] args){
+        List<String> commandLines;
+        try {
+            commandLines = args.length == 0 ? Collections.emptyList() : BatchRunner.readCommands(args);
+        } catch (IOException ioException) {
+            System.out.println("!Cannot read commands: " + ioException.getMessage());
+            return BatchRunner.EXIT_FAILURE;
+        }
+        if (commandLines.isEmpty()){
+            System.out.println("!No commands for the daemon");
+            return BatchRunner.EXIT_FAILURE;
+        }
+        return DaemonServer.sendCommands(Configuration.getDaemonPort(), Paths.get(Configuration.getDaemonTokenFile()), commandLines);
+    }
+
+    /**
+     * Runs one command line, returns false after the exit command.
+     */
+    static boolean execute(String inputData){
+        Command command = CommandParser.parse(inputData);
+        if (command != null){
+            if (command.getCommandType() == CommandType.EXIT){
+                return false;
             }
+            execute(command);
+        }else {
+            System.out.println("!Invalid command!");
+        }
+        return true;
+    }
 
+    /**
+     * Runs any command but exit, transfer commands return their file counts, the others an empty summary.
+     */
+    static TransferSummary execute(Command command){
+        try {
+            switch (command.getCommandType()) {
+                case UPLOAD:
+                    return executeUpload(command);
+                case DOWNLOAD:
+                    return executeDownload(command);
+                case SYNC:
+                    return executeSync(command);
+                case LIST:
+                    executeListing(command);
+                    break;
+                case ALBUM:
+                    return executeAlbumOperation(command);
+                case REINDEX:
+                    executeReindex();
+                    break;
+                default:
+                    System.out.println("!No such command:");
+            }
+            return new TransferSummary();
+        } catch (SdkException sdkException) {
+            // retries are used up, the command fails but the session goes on
+            System.out.println("!Storage error: " + sdkException.getMessage());
+            TransferSummary summary = new TransferSummary();
+            summary.fail();
+            return summary;
         }
+    }
 
+    /**
+     * Connects to the storage and prepares the bucket, returns false when the bucket cannot be used.
+     */
+    static boolean init(){
+        transferMetrics = new TransferMetrics();
+        requestLimiter = new AdaptiveConcurrencyLimiter(1, Configuration.getRequestConcurrency());
+        initStorage();
+        storage = new ThrottledStorageBackend(new MeteredStorageBackend(storage, transferMetrics), requestLimiter);
+        String metricsFile = Configuration.getMetricsFile();
+        metricsReporter = new MetricsReporter(transferMetrics, Configuration.isProgressEnabled(),
+                metricsFile.isEmpty() ? null : Paths.get(metricsFile));
+        metadataCache = new MetadataCache(Configuration.getCacheTtlMillis(), Configuration.getCacheMaxEntries());
+        loadMetadataCache();
+        albumIndex = new AlbumIndex(storage, metadataCache);
+        transferScheduler = new TransferScheduler(Configuration.getTransferConcurrency());
+        bandwidthLimiter = new BandwidthLimiter(Configuration.getBandwidthBytesPerSecond());
+        multipartUploader = new MultipartUploader(storage, bandwidthLimiter, transferMetrics, Configuration.getMultipartPartSizeBytes(),
+                Configuration.getMultipartConcurrency(), Configuration.getMultipartPartAttempts());
+        rangedDownloader = new RangedDownloader(storage, bandwidthLimiter, transferMetrics, Configuration.getDownloadRangeSizeBytes(),
+                Configuration.getDownloadRangeConcurrency(), Configuration.getDownloadRangeAttempts());
+        tagResolver = new TagResolver(storage, Configuration.getTagConcurrency());
+        albumManager = new AlbumManager(storage, albumIndex, transferScheduler);
+        if (Configuration.isThumbnailsEnabled()){
+            thumbnailGenerator = new ThumbnailGenerator(Configuration.getThumbnailThreads(), Configuration.getThumbnailSize());
+        }
+        return prepareBucket();
     }
 
-    private static void init(){
-        initS3Client();
-        printIntroductionInfo();
-        prepareBucket();
+    private static void loadMetadataCache(){
+        String cacheFile = Configuration.getCacheFile();
+        if (!cacheFile.isEmpty()){
+            try {
+                metadataCache.load(Paths.get(cacheFile));
+            } catch (IOException ioException) {
+                System.out.println("!Cannot read metadata cache " + cacheFile + ": " + ioException.getMessage());
+            }
+        }
+    }
+
+    private static void saveMetadataCache(){
+        String cacheFile = Configuration.getCacheFile();
+        if (!cacheFile.isEmpty()){
+            try {
+                metadataCache.save(Paths.get(cacheFile));
+            } catch (IOException ioException) {
+                System.out.println("!Cannot write metadata cache " + cacheFile + ": " + ioException.getMessage());
+            }
+        }
     }
 
     private static void printIntroductionInfo(){
@@ -87,53 +267,168 @@ public class Application {
                         "       cloudphoto - CLI for Amazon s3\n" +
                         "SYNOPSIS:\n" +
                         "       cloudphoto  COMMAND [OPTION]... [ARG]...\n" +
+                        "       java -jar cloudphoto.jar \"COMMAND LINE\"...     (batch mode, exit code 1 on failures)\n" +
+                        "       java -jar cloudphoto.jar -f SCRIPT              (batch mode, one command per line, - for stdin)\n" +
+                        "       java -jar cloudphoto.jar --daemon               (daemon mode, keeps the S3 client warm)\n" +
+                        "       java -jar cloudphoto.jar --client \"COMMAND LINE\"... (runs the commands in the daemon)\n" +
                         "DESCRIPTION:\n" +
                         "       cloudphoto is a client for interacting with the amazon object storages s3.\n" +
-                        "       The cloudphoto CLI has 4 commands. The commands are listed below.\n" +
+                        "       The cloudphoto CLI has 7 commands. The commands are listed below.\n" +
                         "OPTIONS:\n" +
                         "       -p      path of directory\n" +
                         "       -a      album name\n" +
+                        "       -d      sync direction: upload or download\n" +
+                        "       -r      upload subfolders too, keeping their paths in the object names\n" +
+                        "       --thumbs  download the previews made on upload instead of the originals\n" +
+                        "       -t      target album name\n" +
                         "COMMANDS:\n" +
                         "       upload      upload files to object storage s3 from directory by a specific album\n" +
                         "       download    download files from object storage s3 with album name to directory\n" +
+                        "       sync        upload or download only the files that changed since the last sync\n" +
                         "       list        list objects from object storage s3\n" +
+                        "       album       rename, copy, merge into another album or delete an album in the bucket\n" +
+                        "       reindex     rebuild the album index from the object tags\n" +
                         "       exit        quit from program\n" +
                         "EXAMPLES:\n" +
                         "       upload      cloudphoto upload -p /home/username/photos/ -a holiday\n" +
+                        "                   cloudphoto upload -p /home/username/archive/ -a archive -r\n" +
                         "       download    cloudphoto download -p /home/username/downloads/ -a holiday\n" +
+                        "                   cloudphoto download -p /home/username/previews/ -a holiday --thumbs\n" +
+                        "       sync        cloudphoto sync -p /home/username/photos/ -a holiday -d upload\n" +
                         "       list        cloudphoto list -a holiday\n" +
                         "                   cloudphoto list\n" +
+                        "       album       cloudphoto album rename -a holiday -t holiday-2020\n" +
+                        "                   cloudphoto album merge -a phone -t holiday-2020\n" +
+                        "                   cloudphoto album delete -a drafts\n" +
+                        "       reindex     cloudphoto reindex\n" +
                         "       exit        cloudphoto exit\n" +
                         "-------------------------------------------------------------------------------------------");
     }
 
+    private static void initStorage(){
+        if (Configuration.getStorage().equalsIgnoreCase(Configuration.STORAGE_MEMORY)){
+            storage = new MemoryStorageBackend(BUCKET_NAME);
+        }else {
+            initS3Client();
+            storage = new S3StorageBackend(s3Client, BUCKET_NAME, AWS_REGION);
+        }
+    }
+
     private static void initS3Client(){
-        s3Client = S3Client.builder()
-                .region(AWS_REGION)
-                .credentialsProvider(ProfileCredentialsProvider.create())
+        S3ClientBuilder s3ClientBuilder = S3Client.builder()
+                .region(AWS_REGION);
+
+        String endpoint = Configuration.getS3Endpoint();
+        if (endpoint.isEmpty()){
+            s3ClientBuilder.credentialsProvider(ProfileCredentialsProvider.create());
+        }else {
+            // S3-compatible storage (MinIO, local stand-in): path-style URLs, credentials from the environment
+            s3ClientBuilder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                    .credentialsProvider(DefaultCredentialsProvider.create());
+        }
+        s3Client = s3ClientBuilder
+                .httpClientBuilder(createHttpClientBuilder())
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .retryPolicy(createRetryPolicy())
+                        .addExecutionInterceptor(new ThrottlingInterceptor(requestLimiter, transferMetrics))
+                        .build())
                 .build();
     }
 
-    private static void executeUpload(Command command){
+    private static SdkHttpClient.Builder<?> createHttpClientBuilder(){
+        String httpClient = Configuration.getHttpClient();
+        if (httpClient.equals(Configuration.HTTP_CLIENT_URL_CONNECTION)){
+            return UrlConnectionHttpClient.builder()
+                    .connectionTimeout(Duration.ofMillis(Configuration.getHttpConnectTimeoutMillis()))
+                    .socketTimeout(Duration.ofMillis(Configuration.getHttpSocketTimeoutMillis()));
+        }
+        if (!httpClient.equals(Configuration.HTTP_CLIENT_APACHE)){
+            System.out.println("!Unknown HTTP client " + httpClient + ", using " + Configuration.HTTP_CLIENT_APACHE);
+        }
+        return ApacheHttpClient.builder()
+                .maxConnections(Configuration.getHttpMaxConnections())
+                .connectionTimeout(Duration.ofMillis(Configuration.getHttpConnectTimeoutMillis()))
+                .socketTimeout(Duration.ofMillis(Configuration.getHttpSocketTimeoutMillis()))
+                .connectionAcquisitionTimeout(Duration.ofMillis(Configuration.getHttpAcquireTimeoutMillis()));
+    }
+
+    // full jitter backoff, without the retry quota of the standard mode: the request limiter slows down instead
+    private static RetryPolicy createRetryPolicy(){
+        Duration maxDelay = Duration.ofMillis(Configuration.getRetryMaxDelayMillis());
+        return RetryPolicy.builder(RetryMode.STANDARD)
+                .numRetries(Configuration.getRetryCount())
+                .backoffStrategy(FullJitterBackoffStrategy.builder()
+                        .baseDelay(Duration.ofMillis(Configuration.getRetryBaseDelayMillis()))
+                        .maxBackoffTime(maxDelay)
+                        .build())
+                .throttlingBackoffStrategy(FullJitterBackoffStrategy.builder()
+                        .baseDelay(Duration.ofMillis(Configuration.getThrottleBaseDelayMillis()))
+                        .maxBackoffTime(maxDelay)
+                        .build())
+                .retryCapacityCondition(null)
+                .build();
+    }
+
+    private static TransferSummary executeUpload(Command command){
+        TransferSummary summary = new TransferSummary();
         try {
-            uploadImages(command.getParameterValue(Argument.PATH), command.getParameterValue(Argument.ALBUM));
+            uploadImages(command.getParameterValue(Argument.PATH), command.getParameterValue(Argument.ALBUM), command.isRecursive(), null, summary);
             //System.out.println("SUCCESS");
         }catch (FileNotFoundException fileNotFoundException){
             System.out.println(fileNotFoundException.getMessage());
+            summary.fail();
         } /*catch (InvalidImageExtensionException invalidImageExtensionException) {
             System.out.println("The picture" + "\"" + invalidImageExtensionException.getMessage() + "\"" + "from the directory has an invalid extension. Use jpg, jpeg or png.");
         }*/
+        return summary;
     }
 
-    private static void executeDownload(Command command){
+    private static TransferSummary executeDownload(Command command){
+        TransferSummary summary = new TransferSummary();
         try {
-            downloadImages(command.getParameterValue(Argument.PATH), command.getParameterValue(Argument.ALBUM));
+            downloadImages(command.getParameterValue(Argument.PATH), command.getParameterValue(Argument.ALBUM),
+                    command.isThumbnails(), null, summary);
             //System.out.println("SUCCESS");
         } catch (FileNotFoundException | NoObjectsException exception) {
             System.out.println(exception.getMessage());
+            summary.fail();
         } /*catch (InvalidImageExtensionException invalidImageExtensionException) {
             System.out.println("The picture" + "\"" + invalidImageExtensionException.getMessage() + "\"" + " from the bucket has an invalid extension. Use jpg, jpeg or png.");
         }*/
+        return summary;
+    }
+
+    private static TransferSummary executeSync(Command command){
+        TransferSummary summary = new TransferSummary();
+        String pathName = command.getParameterValue(Argument.PATH);
+        String direction = command.getParameterValue(Argument.DIRECTION);
+
+        if (direction == null){
+            System.out.println("!Sync direction is missing: use -d upload or -d download");
+            summary.fail();
+            return summary;
+        }
+        if (!new File(pathName).isDirectory()){
+            System.out.println("!No such folder: " + pathName);
+            summary.fail();
+            return summary;
+        }
+
+        try (SyncState syncState = new SyncState(Paths.get(pathName))) {
+            if (CommandType.valueOf(direction.toUpperCase()) == CommandType.UPLOAD){
+                uploadImages(pathName, command.getParameterValue(Argument.ALBUM), command.isRecursive(), syncState, summary);
+            }else {
+                downloadImages(pathName, command.getParameterValue(Argument.ALBUM), false, syncState, summary);
+            }
+        } catch (FileNotFoundException | NoObjectsException exception) {
+            System.out.println(exception.getMessage());
+            summary.fail();
+        } catch (IOException ioException) {
+            System.out.println("!Cannot write sync state: " + ioException.getMessage());
+            summary.fail();
+        }
+        return summary;
     }
 
     private static void executeListing(Command command){
@@ -146,12 +441,18 @@ public class Application {
     }
 
     private static void executeAlbumsListing(){
-        List<Tag> tagList = getListBucketObjectsByTag("", Tag.builder().build());
+        Iterator<String> albums = albumIndex.listAlbums().iterator();
 
-        if (!tagList.isEmpty()){
-            tagList.stream()//if no tag list is empty
+        if (!albums.hasNext()){
+            System.out.println(MESSAGE_INDEX_EMPTY);
+            albums = getListBucketObjectsByTag("", Tag.builder().build())
+                    .map(Tag::value)
                     .distinct()
-                    .forEach(n -> System.out.println("*" + n.value()));
+                    .iterator();
+        }
+
+        if (albums.hasNext()){
+            albums.forEachRemaining(n -> System.out.println("*" + n));
         }else {
             System.out.println("!No albums");
         }
@@ -160,89 +461,133 @@ public class Application {
     private static void executeAlbumImagesListing(Command command){
         String tagValue = command.getParameterValue(Argument.ALBUM);
 
-        List<S3Object> tagList = getListBucketObjectsByTag(tagValue, S3Object.builder().build());
+        Iterator<AlbumIndex.Entry> entries = getAlbumEntries(tagValue).iterator();
 
-        if (!tagList.isEmpty()){
-            tagList.forEach(n -> System.out.println("*" + n.key()));
+        if (entries.hasNext()){
+            entries.forEachRemaining(n -> System.out.println("*" + n.getKey()));
         }else {
             System.out.println("!No images of " + "\"" + tagValue + "\"" + " album");
         }
 
     }
 
-    private static Command getCommandType(String inputData){
-        boolean flag = inputData.contains(Argument.PATH.getArgumentName());
-
-        String[] filteredData = flag
-                ? whiteSpaceFilter(replaceWhitespacesInPath(inputData))
-                : whiteSpaceFilter(inputData);
-
-        CommandType commandType = CommandType.valueOf(filteredData[1].toUpperCase());
-        Command command = new Command(commandType);
+    // Album images from the index, or from a lazy tag scan of the bucket while the index has not been built yet
+    private static Stream<AlbumIndex.Entry> getAlbumEntries(String tagValue){
+        List<AlbumIndex.Entry> entryList = albumIndex.getEntries(tagValue);
 
-        for (int i = 1; i < filteredData.length-1; i = i + 2) {
-            filteredData[i+2] = flag
-                    ? filteredData[i+2].replace(DELIMITER_WHITESPACE, WHITESPACE)
-                    : filteredData[i+2];
-            command.setParameter( filteredData[i+1], filteredData[i+2]);//[i+1]=key [i+2]=value for argument.For example -a albumName
+        if (entryList.isEmpty() && albumIndex.isEmpty()){
+            System.out.println(MESSAGE_INDEX_EMPTY);
+            return tagResolver.resolve(listBucketObjects())
+                    .filter(taggedObject -> taggedObject.getTags().stream().anyMatch(tag -> isValidTag(tag, tagValue)))
+                    .map(Application::toEntry);
         }
-        return command;
-    }
-
-    /*private static boolean containsWhitespaces(String inputData){
-        return findPath(inputData).contains(" ");
-    }*/
-
-    private static String replaceWhitespacesInPath(String inputData){
-        String pathWithWhitespaces = findPath(inputData).trim();
-        String modifiedPath = pathWithWhitespaces.replace(WHITESPACE, DELIMITER_WHITESPACE);
-        return inputData.replace(pathWithWhitespaces, modifiedPath);
+        return entryList.stream();
     }
 
-    private static String findPath(String inputData){
-        return inputData
-                .split( Argument.PATH.getArgumentName() + "|" + Argument.ALBUM.getArgumentName())[PATH_INDEX];
+    private static TransferSummary executeAlbumOperation(Command command){
+        try {
+            return albumManager.execute(AlbumOperation.valueOf(command.getParameterValue(Argument.OPERATION)),
+                    command.getParameterValue(Argument.ALBUM), command.getParameterValue(Argument.TARGET_ALBUM));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            System.out.println("!Album operation interrupted");
+            TransferSummary summary = new TransferSummary();
+            summary.fail();
+            return summary;
+        }
     }
 
+    private static void executeReindex(){
+        Map<String, List<AlbumIndex.Entry>> albums = new TreeMap<>();
+        Set<String> existingKeys = new HashSet<>();
+
+        // an object is tagged with one album only, shared blobs and album copies are references in the index:
+        // an image that was only linked to another album or name cannot be recovered once its index object is gone
+        Map<String, List<AlbumIndex.Entry>> indexedEntries = new HashMap<>();
+        Set<String> indexedKeys = new HashSet<>();
+        albumIndex.listAlbums().collect(Collectors.toList()).forEach(album -> albumIndex.getEntries(album)
+                .forEach(entry -> {
+                    indexedEntries.computeIfAbsent(album, n -> new ArrayList<>()).add(entry);
+                    indexedKeys.add(entry.getBlobKey());
+                }));
+
+        scanBucketTags((taggedObject, tag) -> {
+            String key = taggedObject.getS3Object().key();
+            existingKeys.add(key);
+            if (indexedKeys.contains(key)){
+                return;
+            }
+            if (containsTagKey(tag)){
+                albums.computeIfAbsent(tag.value(), n -> new ArrayList<>())
+                        .add(toEntry(taggedObject));
+            }
+        });
 
-    private static String[] whiteSpaceFilter(String inputData){
-        return Arrays.stream(inputData.split(WHITESPACE))
-                .filter(n -> !n.isEmpty())
-                .toArray(String[]::new);
-    }
-
+        indexedEntries.forEach((album, entries) -> entries.stream()
+                .filter(n -> existingKeys.contains(n.getBlobKey()))
+                .forEach(entry -> albums.computeIfAbsent(album, n -> new ArrayList<>()).add(entry)));
 
-    private static boolean isValidCommandInputData(String inputData){
-        return inputData.matches(REGEX_USER_INPUT_DATA);
-        //return inputData.matches("^\\s*cloudphoto\\s+(((upload|download)\\s+-p\\s+(\\\\?\\b\\S+\\b\\\\?)*\\s+-a\\s+\\b\\S+\\b\\s*$)|(list\\s*($|-a\\s+\\S+\\s*$)))");
+        albumIndex.rebuild(albums);
+        System.out.println("Album index rebuilt: " + albums.size() + " album(s)");
 
+        int abortedCount = multipartUploader.abortStaleUploads(STALE_MULTIPART_UPLOAD_AGE);
+        if (abortedCount > 0){
+            System.out.println("Aborted incomplete multipart uploads: " + abortedCount);
+        }
     }
 
-    private static void downloadImages(String pathName, String tagValue) throws NoSuchBucketException, FileNotFoundException, NoObjectsException {
-        List<S3Object> s3ObjectList = getListBucketObjectsByTag(tagValue, S3Object.builder().build());
-
-        if (s3ObjectList.isEmpty()){
-            throw new NoObjectsException("!No such album");
-        }else if (!new File(pathName).exists()){
+    /**
+     * @param thumbnails download the previews stored on upload instead of the originals
+     */
+    private static void downloadImages(String pathName, String tagValue, boolean thumbnails, SyncState syncState, TransferSummary summary) throws NoSuchBucketException, FileNotFoundException, NoObjectsException {
+        if (!new File(pathName).exists()){
             throw new FileNotFoundException("!No such folder: " + pathName);
         }else {
-            int successCount = 0;
-            for (S3Object s3Object: s3ObjectList) {
+            String folderPath = processPath(pathName);
+
+            TransferScheduler.Batch batch = transferScheduler.newBatch();
+            try {
                 try {
-                    processImageName(s3Object.key());
-                    downloadImage(s3Object.key(), processPath(pathName));
-                    successCount++;
-                    System.out.println(MESSAGE_SUCCESS + s3Object.key());
-                }catch (InvalidImageExtensionException invalidImageExtensionException){
-                    System.out.println(MESSAGE_FAILED + s3Object.key());
-                    System.out.println(MESSAGE_REASON + invalidImageExtensionException.getMessage());
+                    for (Iterator<AlbumIndex.Entry> entries = getAlbumEntries(tagValue).iterator(); entries.hasNext(); ) {
+                        AlbumIndex.Entry entry = entries.next();
+                        summary.addFile();
+                        batch.submit(() -> {
+                            try {
+                                processImageName(entry.getKey());
+                                File file = new File(folderPath + entry.getKey());
+                                if (syncState != null && isUnchangedDownload(syncState, tagValue, file, entry)){
+                                    summary.addUnchanged();
+                                    System.out.println(MESSAGE_UNCHANGED + entry.getKey());
+                                    return;
+                                }
+                                downloadImage(thumbnails ? toThumbnailEntry(entry) : entry, folderPath);
+                                if (syncState != null){
+                                    syncState.record(tagValue, entry.getKey(), file, entry.getETag());
+                                }
+                                summary.addSuccess();
+                                System.out.println(MESSAGE_SUCCESS + entry.getKey());
+                            }catch (NoSuchFileException noSuchFileException){
+                                printFailure(entry.getKey(), thumbnails ? "!No thumbnail, uploaded without -Dcloudphoto.thumbnails=true"
+                                        : "!No such object: " + noSuchFileException.getMessage());
+                            }catch (InvalidImageExtensionException | IOException | SdkException exception){
+                                printFailure(entry.getKey(), exception.getMessage());
+                            }
+                        });
+                    }
+                } catch (SdkException sdkException) {
+                    // files already started still finish, the command fails
+                    System.out.println("!Cannot list album: " + sdkException.getMessage());
+                    summary.fail();
                 }
-
+                batch.await();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                System.out.println("!Download interrupted");
             }
-            int totalSize = s3ObjectList.size();
-            System.out.println("TOTAL: " + totalSize);
-            System.out.println("SUCCESS: " + successCount + "/" + totalSize);
-            System.out.println("FAILED: " + (totalSize - successCount) + "/" + totalSize);
+            if (summary.getTotalCount() == 0 && !summary.isFailed()){
+                throw new NoObjectsException("!No such album");
+            }
+            printSummary(summary, syncState != null);
         }
 
 
@@ -252,180 +597,404 @@ public class Application {
         return pathName.charAt(pathName.length() - 1) != DELIMITER_PATH ? pathName.concat(String.valueOf(DELIMITER_PATH)) : pathName;
     }
 
-    private static void downloadImage(String keyName, String pathName) {
-
-        GetObjectRequest objectRequest = GetObjectRequest
-                .builder()
-                .key(keyName)
-                .bucket(BUCKET_NAME)
-                .build();
-
-        // get the byte[] from this AWS S3 object
-        ResponseBytes<GetObjectResponse> objectBytes = s3Client.getObjectAsBytes(objectRequest);
-        byte[] data = objectBytes.asByteArray();
+    private static void downloadImage(AlbumIndex.Entry entry, String pathName) throws IOException {
+        String keyName = entry.getKey();
+        // stream the body to a temporary file next to the target, the object is never buffered on heap
+        Path folder = Paths.get(pathName).toAbsolutePath().normalize();
+        Path target = folder.resolve(keyName).normalize();
+        if (!target.startsWith(folder)){
+            throw new IOException("!Object key leads out of the folder: " + keyName);
+        }
+        Files.createDirectories(target.getParent());
+        Path partFile = target.resolveSibling(target.getFileName() + PART_FILE_SUFFIX);
+        boolean ranged = entry.getSize() > Configuration.getDownloadRangeThresholdBytes();
+
+        // the content is checked while it arrives: against the SHA-256 a blob key names, else the MD5 a single PUT ETag is
+        // unless the GET tells the object is encrypted with SSE-KMS or SSE-C
+        String blobKey = entry.getBlobKey();
+        String eTag = Checksums.stripQuotes(entry.getETag());
+        boolean blob = blobKey.startsWith(BLOB_PREFIX);
+        String expectedDigest = blob ? blobKey.substring(BLOB_PREFIX.length())
+                : Checksums.isContentMd5(eTag) ? eTag : null;
+        MessageDigest digest = expectedDigest == null ? null
+                : Checksums.newDigest(blob ? "SHA-256" : "MD5");
+
+        long startedAt = transferMetrics.start(TransferMetrics.DOWNLOAD);
+        long bytes = 0;
+        boolean success = false;
+        try {
+            String serverSideEncryption;
+            if (ranged){
+                serverSideEncryption = rangedDownloader.download(blobKey, entry.getSize(), entry.getETag(), partFile, digest); // takes bandwidth range by range
+                bytes = entry.getSize();
+            }else {
+                serverSideEncryption = downloadWhole(entry, partFile, digest);
+                bytes = Files.size(partFile);
+            }
+            boolean verified = digest != null && (blob || Checksums.isContentMd5(eTag, serverSideEncryption));
+            if (verified && !Checksums.toHex(digest.digest()).equals(expectedDigest)){
+                RangedDownloader.discard(partFile);
+                throw new IOException("!Downloaded content does not match the checksum of " + blobKey);
+            }
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            success = true;
+        } finally {
+            if (!ranged){
+                Files.deleteIfExists(partFile); // only ranged downloads are resumed
+            }
+            transferMetrics.finish(TransferMetrics.DOWNLOAD, startedAt, bytes, success);
+        }
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(pathName + keyName)) {
-            fos.write(data);
-        } catch (IOException ioException) {
-            ioException.printStackTrace();
+    // single GET streamed to the part file, returns the server-side encryption the object was served with
+    private static String downloadWhole(AlbumIndex.Entry entry, Path partFile, MessageDigest digest) throws IOException {
+        acquireBandwidth(entry.getSize());
+        long bytes;
+        String serverSideEncryption;
+        try (ObjectStream objectStream = storage.getObject(entry.getBlobKey())) {
+            serverSideEncryption = objectStream.getServerSideEncryption();
+            bytes = Files.copy(digest == null ? objectStream : new DigestInputStream(objectStream, digest),
+                    partFile, StandardCopyOption.REPLACE_EXISTING);
         }
+        if (bytes > entry.getSize()){
+            acquireBandwidth(bytes - entry.getSize()); // size was not known up front, e.g. of a thumbnail
+        }
+        return serverSideEncryption;
+    }
 
+    /**
+     * Lazily pages through the whole bucket with ListObjectsV2 and yields album tags (empty tagValue)
+     * or the objects of the album, so the first results are available after the first page.
+     */
+    public static <T> Stream<T> getListBucketObjectsByTag(String tagValue, T element) {
+        return tagResolver.resolve(listBucketObjects())
+                .flatMap(taggedObject -> taggedObject.getTags().stream()
+                        .filter(tag -> tagValue.isEmpty() ? containsTagKey(tag) : isValidTag(tag, tagValue))
+                        .map(tag -> tagValue.isEmpty() ? (T) tag : (T) taggedObject.getS3Object()));
+    }
 
+    // Full bucket scan with one GetObjectTagging request per object, used to (re)build the album index
+    private static void scanBucketTags(BiConsumer<TagResolver.TaggedObject, Tag> tagConsumer) {
+        tagResolver.resolve(listBucketObjects()).forEach(taggedObject -> {
+            for (Tag tag : taggedObject.getTags()){
+                tagConsumer.accept(taggedObject, tag);
+            }
+        });
     }
 
-    public static <T> List<T> getListBucketObjectsByTag(String tagValue, T element) {
+    private static Stream<S3Object> listBucketObjects(){
+        // index objects and previews carry no album tag, asking S3 for their tags would only cost requests
+        return storage.listObjects("")
+                .filter(n -> !AlbumIndex.isIndexKey(n.key()))
+                .filter(n -> !n.key().startsWith(ThumbnailGenerator.THUMBNAIL_PREFIX));
+    }
 
-        List<T> resultList = new ArrayList<>();
+    private static boolean isValidTag(Tag tag, String tagValue) {
+        return  tagValue.isEmpty() ? containsTagKey(tag) : containsTagKey(tag) && tag.value().equalsIgnoreCase(tagValue);
+    }
 
-        try {
-            ListObjectsRequest listObjects = ListObjectsRequest
-                    .builder()
-                    .bucket(BUCKET_NAME)
-                    .build();
+    private static boolean containsTagKey(Tag tag){
+        return  !tag.key().isEmpty() &&
+                !tag.value().isEmpty() &&
+                tag.key().equalsIgnoreCase(TAG_KEY);
+    }
 
-            ListObjectsResponse listObjectsResponse = s3Client.listObjects(listObjects);
-            List<S3Object> s3ObjectList = listObjectsResponse.contents();
 
-            for (S3Object s3Object : s3ObjectList) {
+    private static void uploadImages(String folderPath, String tagValue, boolean recursive, SyncState syncState, TransferSummary summary) throws FileNotFoundException {
+        File folder = new File(folderPath);
 
-                GetObjectTaggingResponse result = s3Client.getObjectTagging(GetObjectTaggingRequest.builder()
-                        .bucket(BUCKET_NAME)
-                        .key(s3Object.key())
-                        .build()
-                );
+        if (folder.exists()){
+            if (!folder.isDirectory()){
+                throw new FileNotFoundException("!Folder is empty - nothing to upload");
+            }
+            Queue<AlbumIndex.Entry> uploadedEntries = new ConcurrentLinkedQueue<>();
 
-                List<Tag> tagList = result.tagSet();
+            Map<String, AlbumIndex.Entry> remoteEntries = new HashMap<>();
+            if (syncState != null){
+                getAlbumEntries(tagValue).forEach(n -> remoteEntries.put(n.getKey(), n));
+            }
 
-                if (!tagList.isEmpty()){
-                    for (Tag tag :tagList){
-                        if (tagValue.isEmpty()){
-                            if (containsTagKey(tag)){
-                                resultList.add((T) tag);
-                            }
-                        }else {
-                            if (isValidTag(tag, tagValue)){
-                                resultList.add((T) s3Object);
+            // files are submitted while the tree is walked; submit() blocks while the in-flight limit is reached.
+            // Links are followed like File.isFile() did, a link cycle ends up in visitFileFailed
+            Path root = folder.toPath();
+            TransferScheduler.Batch batch = transferScheduler.newBatch();
+            try {
+                Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                        File file = path.toFile();
+                        if (attributes.isDirectory()){
+                            return FileVisitResult.CONTINUE; // a subfolder below the depth limit of a run without -r
+                        }
+                        if (!attributes.isRegularFile()){
+                            // a broken link, a pipe or a device: counted as failed instead of vanishing from TOTAL
+                            summary.addFile();
+                            printFailure(root.relativize(path).toString(), "!Not a regular file");
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (!SyncState.isStateFile(file)){
+                            String keyName = toKeyName(root.relativize(path));
+                            summary.addFile();
+                            try {
+                                batch.submit(() -> uploadFile(file, keyName, tagValue, syncState, remoteEntries, uploadedEntries, summary));
+                            } catch (InterruptedException interruptedException) {
+                                throw new InterruptedIOException();
                             }
-
                         }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException exception) {
+                        summary.addFile();
+                        printFailure(root.relativize(path).toString(), exception instanceof FileSystemLoopException
+                                ? "!Link leads back to a parent folder" : "!Cannot read " + exception.getMessage());
+                        return FileVisitResult.CONTINUE;
                     }
+                });
+                batch.await();
+            } catch (InterruptedIOException | InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                System.out.println("!Upload interrupted");
+            } catch (IOException ioException) {
+                throw new FileNotFoundException("!Cannot read folder: " + folderPath);
+            }
+
+            List<AlbumIndex.Entry> replacedEntries = albumIndex.addEntries(tagValue, uploadedEntries);
+            try {
+                // the old content of a photo uploaded again under its name is not kept once no album refers to it
+                albumManager.deleteUnreferenced(replacedEntries);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            printSummary(summary, syncState != null);
+        }else {
+            throw new FileNotFoundException("!No such folder: " + folderPath);
+        }
+
+    }
+
+    private static void uploadFile(File file, String keyName, String tagValue, SyncState syncState, Map<String, AlbumIndex.Entry> remoteEntries,
+                                   Queue<AlbumIndex.Entry> uploadedEntries, TransferSummary summary){
+        try {
+            processImageName(file.getName());
+            if (syncState != null){
+                AlbumIndex.Entry unchangedEntry = findUnchangedUpload(syncState, tagValue, file, keyName, remoteEntries.get(keyName));
+                if (unchangedEntry != null){
+                    if (!remoteEntries.containsKey(keyName)){
+                        uploadedEntries.add(unchangedEntry);
+                    }
+                    summary.addUnchanged();
+                    System.out.println(MESSAGE_UNCHANGED + keyName);
+                    return;
+                }
+            }
+            // content-addressed: the same photo in another folder or album is not transferred again, only linked
+            String blobKey = BLOB_PREFIX + Checksums.sha256Hex(file.toPath());
+            S3Object existingBlob = storage.headObject(blobKey);
+            // the preview is rendered on the CPU pool while the original is sent
+            CompletableFuture<ThumbnailGenerator.Thumbnail> thumbnail = renderThumbnail(file, blobKey, existingBlob != null);
+            AlbumIndex.Entry entry;
+            try {
+                entry = existingBlob != null
+                        ? new AlbumIndex.Entry(keyName, existingBlob.size(), existingBlob.eTag(), blobKey)
+                        : uploadImage(file, keyName, blobKey, tagValue);
+            } catch (IOException | SdkException exception) {
+                if (thumbnail != null){
+                    thumbnail.cancel(false);
                 }
+                throw exception;
+            }
+            if (thumbnail != null){
+                uploadThumbnail(keyName, blobKey, thumbnail);
+            }
+            uploadedEntries.add(entry);
+            if (syncState != null){
+                syncState.record(tagValue, keyName, file, entry.getETag());
             }
+            summary.addSuccess();
+            System.out.println((existingBlob != null ? MESSAGE_LINKED : MESSAGE_SUCCESS) + keyName);
+        }catch (InvalidImageExtensionException | IOException | SdkException exception){
+            printFailure(keyName, exception.getMessage());
+        }
+    }
 
-        } catch (S3Exception e) {
-            System.err.println(e.awsErrorDetails().errorMessage());
-            System.exit(1);
+    // null when previews are off or a linked blob has one already
+    private static CompletableFuture<ThumbnailGenerator.Thumbnail> renderThumbnail(File file, String blobKey, boolean linked){
+        if (thumbnailGenerator == null || linked && storage.headObject(ThumbnailGenerator.getThumbnailKey(blobKey)) != null){
+            return null;
         }
+        return thumbnailGenerator.render(file);
+    }
 
-        return resultList;
+    // a missing preview is reported, the upload of the original still counts as done
+    private static void uploadThumbnail(String keyName, String blobKey, CompletableFuture<ThumbnailGenerator.Thumbnail> thumbnail){
+        try {
+            ThumbnailGenerator.Thumbnail rendered = thumbnail.join();
+            acquireBandwidth(rendered.getContent().length);
+            storage.putObject(ThumbnailGenerator.getThumbnailKey(blobKey), rendered.getContent(), rendered.getContentType());
+        } catch (CompletionException completionException) {
+            Throwable cause = completionException.getCause();
+            if (cause instanceof UncheckedIOException){
+                cause = cause.getCause();
+            }
+            System.out.println("!Cannot create thumbnail of " + keyName + ": " + cause.getMessage());
+        } catch (IOException | SdkException exception) {
+            System.out.println("!Cannot store thumbnail of " + keyName + ": " + exception.getMessage());
+        }
     }
 
-    private static boolean isValidTag(Tag tag, String tagValue) {
-        return  tagValue.isEmpty() ? containsTagKey(tag) : containsTagKey(tag) && tag.value().equalsIgnoreCase(tagValue);
+    private static AlbumIndex.Entry toThumbnailEntry(AlbumIndex.Entry entry){
+        return new AlbumIndex.Entry(entry.getKey(), 0, null, ThumbnailGenerator.getThumbnailKey(entry.getBlobKey()));
     }
 
-    private static boolean containsTagKey(Tag tag){
-        return  !tag.key().isEmpty() &&
-                !tag.value().isEmpty() &&
-                tag.key().equalsIgnoreCase(TAG_KEY);
+    // path relative to the uploaded folder, with '/' separators on every platform
+    private static String toKeyName(Path relativePath){
+        StringJoiner keyName = new StringJoiner(String.valueOf(DELIMITER_PATH));
+        for (Path name : relativePath) {
+            keyName.add(name.toString());
+        }
+        return keyName.toString();
     }
 
+    private static void printFailure(String name, String reason){
+        // one println so that lines of concurrent transfers do not interleave
+        System.out.println(MESSAGE_FAILED + name + "\n" + MESSAGE_REASON + reason);
+    }
 
-    private static void uploadImages(String folderPath, String tagValue) throws FileNotFoundException {
-        File folder = new File(folderPath);
+    private static void printSummary(TransferSummary summary, boolean sync){
+        int totalSize = summary.getTotalCount();
+        // one println, summaries of concurrent batch commands do not interleave
+        System.out.println("TOTAL: " + totalSize + "\n" +
+                "SUCCESS: " + summary.getSuccessCount() + "/" + totalSize + "\n" +
+                (sync ? "UNCHANGED: " + summary.getUnchangedCount() + "/" + totalSize + "\n" : "") +
+                "FAILED: " + summary.getFailedCount() + "/" + totalSize);
+    }
 
-        if (folder.exists()){
-            File [] listOfFiles = folder.listFiles();
-            if (listOfFiles != null){
-                int successCount = 0;
-                for (File file : listOfFiles) {
-                    if (file.isFile()) {
-                        try {
-                            processImageName(file.getName());
-                            uploadImage(file, tagValue);
-                            successCount++;
-                            System.out.println(MESSAGE_SUCCESS + file.getName());
-                        }catch (InvalidImageExtensionException invalidImageExtensionException){
-                            System.out.println(MESSAGE_FAILED + file.getName());
-                            System.out.println(MESSAGE_REASON + invalidImageExtensionException.getMessage());
-                        }
-                    }
-                }
-                int totalSize = listOfFiles.length;
-                System.out.println("TOTAL: " + totalSize);
-                System.out.println("SUCCESS: " + successCount + "/" + totalSize);
-                System.out.println("FAILED: " + (totalSize - successCount) + "/" + totalSize);
-            }else {
-                throw new FileNotFoundException("!Folder is empty - nothing to upload");
+    /**
+     * Returns the album entry the local file is already stored as, or null when the file has to be uploaded.
+     */
+    private static AlbumIndex.Entry findUnchangedUpload(SyncState syncState, String tagValue, File file, String keyName, AlbumIndex.Entry remoteEntry) throws IOException {
+        SyncState.Record record = syncState.get(tagValue, keyName);
+        boolean sameAsRecorded = record != null && record.matches(file);
+
+        if (remoteEntry != null){
+            if (sameAsRecorded && record.getETag().equals(remoteEntry.getETag())){
+                return remoteEntry;
+            }
+            if (isSameContent(file, remoteEntry)){
+                syncState.record(tagValue, keyName, file, remoteEntry.getETag());
+                return remoteEntry;
             }
-        }else {
-            throw new FileNotFoundException("!No such folder: " + folderPath);
         }
+        // a file uploaded by an interrupted run that did not get to write the album index is only linked by uploadImage
+        return null;
+    }
+
+    private static boolean isUnchangedDownload(SyncState syncState, String tagValue, File file, AlbumIndex.Entry entry) throws IOException {
+        SyncState.Record record = syncState.get(tagValue, entry.getKey());
 
+        if (record != null && record.matches(file) && record.getETag().equals(entry.getETag())){
+            return true;
+        }
+        if (file.isFile() && isSameContent(file, entry)){
+            syncState.record(tagValue, entry.getKey(), file, entry.getETag());
+            return true;
+        }
+        return false;
+    }
+
+    // the encryption is not known without a request, an SSE-KMS or SSE-C ETag just never matches and the file is fetched again
+    private static boolean isSameContent(File file, AlbumIndex.Entry entry) throws IOException {
+        return file.length() == entry.getSize()
+                && Checksums.isContentMd5(entry.getETag())
+                && Checksums.md5Hex(file.toPath()).equalsIgnoreCase(Checksums.stripQuotes(entry.getETag()));
     }
 
     private static void processImageName(String imageName) throws InvalidImageExtensionException {
-        if (!imageName.matches(REGEX_IMAGE_NAME)){
+        if (!isImageName(imageName)){
             throw new InvalidImageExtensionException("!The picture "  + "\"" + imageName + "\"" + " has an invalid extension. Use jpg, jpeg or png.");
         }
     }
 
-    private static void uploadImage(File file, String tagValue){
-        PutObjectRequest objectRequest = PutObjectRequest.builder()
-                .bucket(BUCKET_NAME)
-                .key(file.getName())
-                .tagging(Tagging.builder()
-                        .tagSet(new ArrayList<>(Collections.singletonList(Tag.builder()
-                                .key(TAG_KEY)
-                                .value(tagValue)
-                                .build())))
-                        .build())
-                .build();
+    // linear check of the extension, called for every file and key of a transfer
+    static boolean isImageName(String name){
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0 || Character.isWhitespace(name.charAt(0))){
+            return false;
+        }
+        int extensionLength = name.length() - dot - 1;
+        return hasExtension(name, dot, extensionLength, IMAGE_EXTENSION_JPG)
+                || hasExtension(name, dot, extensionLength, IMAGE_EXTENSION_JPEG)
+                || hasExtension(name, dot, extensionLength, IMAGE_EXTENSION_PNG);
+    }
 
-        s3Client.putObject(objectRequest, RequestBody.fromFile(file));
+    private static boolean hasExtension(String name, int dot, int extensionLength, String extension){
+        return extensionLength == extension.length() && name.regionMatches(true, dot + 1, extension, 0, extensionLength);
     }
 
-    private static void prepareBucket(){
-        System.out.println("Bucket preparing...");
-        ListBucketsRequest listBucketsRequest = ListBucketsRequest.builder().build();
-        ListBucketsResponse listBucketsResponse = s3Client.listBuckets(listBucketsRequest);
+    private static AlbumIndex.Entry uploadImage(File file, String keyName, String blobKey, String tagValue) throws IOException {
+        boolean multipart = file.length() > Configuration.getMultipartThresholdBytes();
+        if (!multipart){
+            acquireBandwidth(file.length()); // multipart uploads take it part by part
+        }
 
-        Optional<Bucket> searchedBucket = listBucketsResponse.buckets().stream()//bucket name from Amazon
-                .filter(n -> n.name().equals(BUCKET_NAME))
-                .findAny();
+        // the name goes with the blob, "reindex" needs it when the index object is lost
+        List<Tag> tags = new ArrayList<>(Collections.singletonList(Tag.builder()
+                .key(TAG_KEY)
+                .value(tagValue)
+                .build()));
+        tags.addAll(NameTags.toTags(keyName));
 
-        if (!searchedBucket.isPresent()){
-            createBucket(s3Client, AWS_REGION);
-        }else {
-            System.out.println("Your bucket name: " + BUCKET_NAME);
+        long startedAt = transferMetrics.start(TransferMetrics.UPLOAD);
+        boolean success = false;
+        try {
+            String eTag = multipart
+                    ? multipartUploader.upload(file, blobKey, tags)
+                    : storage.putObject(blobKey, file.toPath(), tags);
+            success = true;
+            return new AlbumIndex.Entry(keyName, file.length(), eTag, blobKey);
+        } finally {
+            transferMetrics.finish(TransferMetrics.UPLOAD, startedAt, success ? file.length() : 0, success);
         }
     }
 
-    // Create a bucket by using a S3Waiter object
-    private static void createBucket(S3Client s3, Region region) {
+    private static void acquireBandwidth(long bytes) throws IOException {
         try {
-            S3Waiter s3Waiter = s3Client.waiter();
-            CreateBucketRequest bucketRequest = CreateBucketRequest.builder()
-                    .bucket(BUCKET_NAME)
-                    .createBucketConfiguration(
-                            CreateBucketConfiguration.builder()
-                                    .locationConstraint(region.id())
-                                    .build())
-                    .build();
-
-            s3.createBucket(bucketRequest);
-            HeadBucketRequest bucketRequestWait = HeadBucketRequest.builder()
-                    .bucket(BUCKET_NAME)
-                    .build();
-
-            // Wait until the bucket is created and print out the response
-            WaiterResponse<HeadBucketResponse> waiterResponse = s3Waiter.waitUntilBucketExists(bucketRequestWait);
-            //waiterResponse.matched().response().ifPresent(System.out::println);
-            waiterResponse.matched().response().ifPresent(n-> System.out.println());
-            System.out.println("Bucket name: " + "\"" + BUCKET_NAME + "\"" +" is ready\n");
-        } catch (S3Exception e) {
-            System.err.println(e.awsErrorDetails().errorMessage());
-            System.exit(1);
+            bandwidthLimiter.acquire(bytes);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        }
+    }
+
+    private static boolean isBlobKey(String key){
+        return key.startsWith(BLOB_PREFIX);
+    }
+
+    // entry of a tagged object found by a bucket scan, a blob is named by the name stored on it at upload
+    private static AlbumIndex.Entry toEntry(TagResolver.TaggedObject taggedObject){
+        S3Object s3Object = taggedObject.getS3Object();
+        String name = isBlobKey(s3Object.key()) ? NameTags.fromTags(taggedObject.getTags()) : s3Object.key();
+        if (name == null){
+            name = s3Object.key().substring(BLOB_PREFIX.length()); // blob stored without a name, only its hash is known
+        }
+        return new AlbumIndex.Entry(name, s3Object.size(), s3Object.eTag(), s3Object.key());
+    }
+
+    private static boolean prepareBucket(){
+        System.out.println("Bucket preparing...");
+        try {
+            if (!storage.bucketExists()){
+                storage.createBucket();
+                System.out.println("Bucket name: " + "\"" + BUCKET_NAME + "\"" +" is ready\n");
+            }else {
+                System.out.println("Your bucket name: " + BUCKET_NAME);
+            }
+            return true;
+        } catch (SdkException sdkException) {
+            System.out.println("!Cannot prepare bucket " + BUCKET_NAME + ": " + sdkException.getMessage());
+            return false;
         }
     }
 
@@ -1,7 +1,8 @@
 package org.example;
 
 public enum Argument {
-    PATH("-p"), ALBUM("-a"), ILLEGAL_ARGUMENT("illegal argument");
+    PATH("-p"), ALBUM("-a"), TARGET_ALBUM("-t"), DIRECTION("-d"), RECURSIVE("-r"), THUMBNAILS("--thumbs"), OPERATION("operation"),
+    ILLEGAL_ARGUMENT("illegal argument");
 
     private String argumentName;
 
@@ -0,0 +1,41 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all transfers. A transfer takes its bytes before it starts and may leave the bucket
+ * in debt, e.g. for a file larger than the budget of one second; the next transfer then waits until
+ * the debt is paid off, so the average rate never exceeds the budget.
+ */
+public class BandwidthLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private double availableBytes;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond budget of all transfers together, 0 for no limit
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.availableBytes = bytesPerSecond;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0){
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            availableBytes = Math.min(bytesPerSecond, availableBytes + (double) (now - refilledAt) * bytesPerSecond / NANOS_PER_SECOND);
+            refilledAt = now;
+
+            waitNanos = availableBytes < 0 ? (long) (-availableBytes * NANOS_PER_SECOND / bytesPerSecond) : 0;
+            availableBytes -= bytes;
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+}
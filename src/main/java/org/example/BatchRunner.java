@@ -0,0 +1,162 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Non-interactive mode: runs a list of commands and returns an exit code. Commands run concurrently
+ * unless they touch the same album or the same folder, those run one after another in the given order;
+ * list and reindex without an album and album delete wait for everything before them and block everything after them.
+ * All transfers share the transfer scheduler, so the global concurrency limit holds for the whole batch.
+ */
+public class BatchRunner {
+    public static final int EXIT_SUCCESS = 0;
+    public static final int EXIT_FAILURE = 1;
+    private static final String SCRIPT_OPTION = "-f";
+    private static final String STANDARD_INPUT = "-";
+    private static final char COMMENT = '#';
+
+    private final ExecutorService executorService;
+    private final TransferSummary summary = new TransferSummary();
+    private final AtomicInteger failedCommandCount = new AtomicInteger();
+
+    public BatchRunner(int concurrency) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executorService = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "cloudphoto-command-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Command lines of the program arguments: {@code -f FILE} reads a script ({@code -f -} reads standard input),
+     * otherwise every argument is one command. Blank lines and lines starting with # are skipped.
+     */
+    public static List<String> readCommands(String[] args) throws IOException {
+        List<String> lines;
+        if (args[0].equals(SCRIPT_OPTION)){
+            if (args.length != 2){
+                throw new IOException("use " + SCRIPT_OPTION + " FILE or " + SCRIPT_OPTION + " " + STANDARD_INPUT);
+            }
+            if (args[1].equals(STANDARD_INPUT)){
+                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                lines = reader.lines().collect(Collectors.toList());
+            }else {
+                lines = Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8);
+            }
+        }else {
+            lines = Arrays.asList(args);
+        }
+
+        return lines.stream()
+                .filter(n -> !n.trim().isEmpty() && n.trim().charAt(0) != COMMENT)
+                .collect(Collectors.toList());
+    }
+
+    public int run(List<String> commandLines){
+        Map<String, CompletableFuture<Void>> lastByResource = new HashMap<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        CompletableFuture<Void> barrier = CompletableFuture.completedFuture(null);
+        int commandCount = 0;
+
+        for (String commandLine : commandLines) {
+            Command command = CommandParser.parse(commandLine);
+            if (command != null && command.getCommandType() == CommandType.EXIT){
+                break;
+            }
+            commandCount++;
+            if (command == null){
+                System.out.println("!Invalid command: " + commandLine.trim());
+                failedCommandCount.incrementAndGet();
+                continue;
+            }
+
+            List<String> resources = getResources(command);
+            CompletableFuture<Void> future;
+            if (resources.isEmpty()){
+                pending.add(barrier);
+                future = CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                        .thenRunAsync(() -> runCommand(commandLine, command), executorService);
+                barrier = future;
+                lastByResource.clear();
+                pending.clear();
+            }else {
+                List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+                dependencies.add(barrier);
+                for (String resource : resources) {
+                    CompletableFuture<Void> previous = lastByResource.get(resource);
+                    if (previous != null){
+                        dependencies.add(previous);
+                    }
+                }
+                future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+                        .thenRunAsync(() -> runCommand(commandLine, command), executorService);
+                for (String resource : resources) {
+                    lastByResource.put(resource, future);
+                }
+            }
+            pending.add(future);
+        }
+
+        pending.add(barrier);
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        executorService.shutdown();
+
+        printSummary(commandCount);
+        return failedCommandCount.get() > 0 ? EXIT_FAILURE : EXIT_SUCCESS;
+    }
+
+    private void runCommand(String commandLine, Command command){
+        System.out.println("> " + commandLine.trim());
+        try {
+            TransferSummary commandSummary = Application.execute(command);
+            summary.add(commandSummary);
+            if (commandSummary.isFailed()){
+                failedCommandCount.incrementAndGet();
+            }
+        } catch (RuntimeException exception) {
+            System.out.println("!Command failed: " + commandLine.trim() + ": " + exception.getMessage());
+            failedCommandCount.incrementAndGet();
+        }
+    }
+
+    // albums are matched ignoring case, folders by their absolute path; deleting an album may delete blobs
+    // that an upload to any album is about to link, so it is a barrier
+    private static List<String> getResources(Command command){
+        List<String> resources = new ArrayList<>(2);
+        if (AlbumOperation.DELETE.name().equals(command.getParameterValue(Argument.OPERATION))){
+            return resources;
+        }
+        for (Argument argument : new Argument[]{Argument.ALBUM, Argument.TARGET_ALBUM}) {
+            String album = command.getParameterValue(argument);
+            if (album != null){
+                resources.add("album:" + album.toLowerCase(Locale.ROOT));
+            }
+        }
+        String path = command.getParameterValue(Argument.PATH);
+        if (path != null){
+            resources.add("path:" + Paths.get(path).toAbsolutePath().normalize());
+        }
+        return resources;
+    }
+
+    private void printSummary(int commandCount){
+        System.out.println("BATCH COMMANDS: " + commandCount + "\n" +
+                "FAILED COMMANDS: " + failedCommandCount.get() + "/" + commandCount + "\n" +
+                "TOTAL FILES: " + summary.getTotalCount() + "\n" +
+                "SUCCESS: " + summary.getSuccessCount() + "/" + summary.getTotalCount() + "\n" +
+                "UNCHANGED: " + summary.getUnchangedCount() + "/" + summary.getTotalCount() + "\n" +
+                "FAILED: " + summary.getFailedCount() + "/" + summary.getTotalCount());
+    }
+}
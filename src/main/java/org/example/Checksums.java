@@ -0,0 +1,81 @@
+package org.example;
+
+import org.example.storage.ObjectStream;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class Checksums {
+    private static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Checksums() {
+    }
+
+    /**
+     * ETag of an object uploaded by a single PUT is the hex MD5 of its content,
+     * ETags of multipart uploads have a "-partCount" suffix and cannot be compared with a file hash.
+     */
+    public static boolean isContentMd5(String eTag){
+        return eTag != null && !eTag.contains("-");
+    }
+
+    /**
+     * Like {@link #isContentMd5(String)} for an object whose encryption is known: the ETag of an object encrypted
+     * with SSE-KMS or a customer key (SSE-C) is not the MD5 of its content either.
+     *
+     * @param serverSideEncryption as the GET answered it, null when the object is not encrypted
+     */
+    public static boolean isContentMd5(String eTag, String serverSideEncryption){
+        return isContentMd5(eTag) && (serverSideEncryption == null || serverSideEncryption.equals(ObjectStream.SSE_AES256));
+    }
+
+    public static String stripQuotes(String eTag){
+        return eTag != null && eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"")
+                ? eTag.substring(1, eTag.length() - 1)
+                : eTag;
+    }
+
+    public static String md5Hex(Path path) throws IOException {
+        return digestHex(path, "MD5");
+    }
+
+    // content address of a file, the blob key it is stored under
+    public static String sha256Hex(Path path) throws IOException {
+        return digestHex(path, "SHA-256");
+    }
+
+    // the file is read through memory-mapped windows, the content is never copied to the heap
+    private static String digestHex(Path path, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            for (long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+                digest.update(fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW_SIZE, size - position)));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static MessageDigest newDigest(String algorithm){
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IllegalStateException(algorithm + " is not supported by the JVM", noSuchAlgorithmException);
+        }
+    }
+
+    public static String toHex(byte[] bytes){
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
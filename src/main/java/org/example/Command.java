@@ -20,6 +20,10 @@ public class Command {
 
     }
 
+    public void setParameter(Argument argument, String value){
+        parameters.put(argument, value);
+    }
+
     public CommandType getCommandType() {
         return commandType;
     }
@@ -28,6 +32,16 @@ public class Command {
         return parameters.get(key);
     }
 
+    // -r is a flag without a value
+    public boolean isRecursive(){
+        return parameters.containsKey(Argument.RECURSIVE);
+    }
+
+    // --thumbs is a flag without a value
+    public boolean isThumbnails(){
+        return parameters.containsKey(Argument.THUMBNAILS);
+    }
+
     public Map<Argument, String> getParameters(){
         return parameters;
     }
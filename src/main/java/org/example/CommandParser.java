@@ -0,0 +1,204 @@
+package org.example;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Single-pass parser of a REPL line. The line is scanned once, token by token, without regular expressions
+ * or intermediate arrays, and the {@link Command} is built while scanning:
+ * <pre>
+ * cloudphoto (upload|download|sync) -p PATH -a ALBUM [-d upload|download] [-r]
+ * cloudphoto list [-a ALBUM]
+ * cloudphoto album (rename|copy|merge) -a ALBUM -t TARGET_ALBUM
+ * cloudphoto album delete -a ALBUM
+ * cloudphoto (reindex|exit)
+ * </pre>
+ * PATH may contain whitespace, it ends at the first standalone {@code -a}.
+ */
+final class CommandParser {
+    private static final String PROGRAM_NAME = "cloudphoto";
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+    private static final String[] COMMAND_NAMES = new String[COMMAND_TYPES.length];
+
+    static {
+        for (int i = 0; i < COMMAND_TYPES.length; i++) {
+            COMMAND_NAMES[i] = COMMAND_TYPES[i].name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final String input;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+    private int pathStart;
+    private int pathEnd;
+
+    private CommandParser(String input) {
+        this.input = input;
+    }
+
+    /**
+     * @return the parsed command or null when the line is not a valid command
+     */
+    static Command parse(String inputData){
+        return new CommandParser(inputData).parseCommand();
+    }
+
+    /**
+     * Resolves PATH against the working directory of this process, e.g. before the line is sent to a daemon
+     * that runs elsewhere.
+     *
+     * @return the line with an absolute PATH, the line itself when it has no PATH or is not a valid command
+     */
+    static String resolvePath(String inputData){
+        CommandParser parser = new CommandParser(inputData);
+        if (parser.parseCommand() == null || parser.pathEnd == 0){
+            return inputData;
+        }
+        try {
+            String path = Paths.get(inputData.substring(parser.pathStart, parser.pathEnd)).toAbsolutePath().normalize().toString();
+            return inputData.substring(0, parser.pathStart) + path + inputData.substring(parser.pathEnd);
+        } catch (InvalidPathException invalidPathException) {
+            return inputData; // the command reports the path where it runs
+        }
+    }
+
+    private Command parseCommand(){
+        if (!nextToken() || !tokenEquals(PROGRAM_NAME) || !nextToken()){
+            return null;
+        }
+
+        CommandType commandType = toCommandType();
+        if (commandType == null){
+            return null;
+        }
+        Command command = new Command(commandType);
+
+        switch (commandType) {
+            case UPLOAD:
+            case DOWNLOAD:
+            case SYNC:
+                return parseTransferOptions(command) ? command : null;
+            case LIST:
+                if (nextToken()){
+                    if (!tokenEquals(Argument.ALBUM.getArgumentName()) || !nextToken()){
+                        return null;
+                    }
+                    command.setParameter(Argument.ALBUM, token());
+                    return nextToken() ? null : command;
+                }
+                return command;
+            case ALBUM:
+                return parseAlbumOperation(command) ? command : null;
+            default:
+                return nextToken() ? null : command;
+        }
+    }
+
+    // -p PATH -a ALBUM [-d upload|download] [-r], download also takes [--thumbs]
+    private boolean parseTransferOptions(Command command){
+        if (!nextToken() || !tokenEquals(Argument.PATH.getArgumentName()) || !nextToken()
+                || tokenEquals(Argument.ALBUM.getArgumentName())){
+            return false;
+        }
+
+        pathStart = tokenStart;
+        pathEnd = tokenEnd;
+        boolean albumFound;
+        while ((albumFound = nextToken()) && !tokenEquals(Argument.ALBUM.getArgumentName())) {
+            pathEnd = tokenEnd;
+        }
+        if (!albumFound || !nextToken() || isOption()){
+            return false;
+        }
+        command.setParameter(Argument.PATH, input.substring(pathStart, pathEnd));
+        command.setParameter(Argument.ALBUM, token());
+
+        if (!nextToken()){
+            return true;
+        }
+        if (tokenEquals(Argument.DIRECTION.getArgumentName())){
+            if (!nextToken() || !(tokenEquals("upload") || tokenEquals("download"))){
+                return false;
+            }
+            command.setParameter(Argument.DIRECTION, token());
+            if (!nextToken()){
+                return true;
+            }
+        }
+        if (tokenEquals(Argument.RECURSIVE.getArgumentName())){
+            command.setParameter(Argument.RECURSIVE, Boolean.TRUE.toString());
+            if (!nextToken()){
+                return true;
+            }
+        }
+        if (command.getCommandType() == CommandType.DOWNLOAD && tokenEquals(Argument.THUMBNAILS.getArgumentName())){
+            command.setParameter(Argument.THUMBNAILS, Boolean.TRUE.toString());
+            return !nextToken();
+        }
+        return false;
+    }
+
+    // (rename|copy|merge) -a ALBUM -t TARGET_ALBUM, delete -a ALBUM
+    private boolean parseAlbumOperation(Command command){
+        if (!nextToken()){
+            return false;
+        }
+        AlbumOperation operation = AlbumOperation.fromName(token());
+        if (operation == null || !nextToken() || !tokenEquals(Argument.ALBUM.getArgumentName()) || !nextToken() || isOption()){
+            return false;
+        }
+        command.setParameter(Argument.OPERATION, operation.name());
+        command.setParameter(Argument.ALBUM, token());
+
+        if (operation == AlbumOperation.DELETE){
+            return !nextToken();
+        }
+        if (!nextToken() || !tokenEquals(Argument.TARGET_ALBUM.getArgumentName()) || !nextToken() || isOption()){
+            return false;
+        }
+        command.setParameter(Argument.TARGET_ALBUM, token());
+        return !nextToken();
+    }
+
+    private CommandType toCommandType(){
+        for (int i = 0; i < COMMAND_NAMES.length; i++) {
+            if (tokenEquals(COMMAND_NAMES[i])){
+                return COMMAND_TYPES[i];
+            }
+        }
+        return null;
+    }
+
+    // moves to the next whitespace-separated token, false at the end of the line
+    private boolean nextToken(){
+        int length = input.length();
+        while (position < length && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+        if (position == length){
+            tokenStart = tokenEnd = length;
+            return false;
+        }
+
+        tokenStart = position;
+        while (position < length && !Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+        tokenEnd = position;
+        return true;
+    }
+
+    private boolean tokenEquals(String value){
+        return tokenEnd - tokenStart == value.length() && input.regionMatches(tokenStart, value, 0, value.length());
+    }
+
+    private boolean isOption(){
+        return input.charAt(tokenStart) == '-';
+    }
+
+    private String token(){
+        return input.substring(tokenStart, tokenEnd);
+    }
+}
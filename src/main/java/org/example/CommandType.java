@@ -1,5 +1,5 @@
 package org.example;
 
 public enum CommandType {
-    UPLOAD, DOWNLOAD, LIST, EXIT
+    UPLOAD, DOWNLOAD, SYNC, LIST, ALBUM, REINDEX, EXIT
 }
@@ -0,0 +1,202 @@
+package org.example;
+
+import java.nio.file.Paths;
+
+/**
+ * Tuning knobs read from system properties, e.g. {@code java -Dcloudphoto.transfer.concurrency=32 -jar ...}.
+ */
+public final class Configuration {
+    private static final String PROPERTY_PREFIX = "cloudphoto.";
+    private static final long MEGABYTE = 1024L * 1024;
+    static final String STORAGE_MEMORY = "memory";
+    static final String HTTP_CLIENT_APACHE = "apache";
+    static final String HTTP_CLIENT_URL_CONNECTION = "url-connection";
+
+    private Configuration() {
+    }
+
+    // "s3" or "memory", the latter keeps the bucket in this process only
+    public static String getStorage(){
+        return getString("storage", "s3");
+    }
+
+    // S3-compatible endpoint used instead of AWS, e.g. http://localhost:9000
+    public static String getS3Endpoint(){
+        return getString("s3.endpoint", "");
+    }
+
+    // maximum number of files transferred at the same time
+    public static int getTransferConcurrency(){
+        return getInt("transfer.concurrency", 16);
+    }
+
+    // commands of a batch run at the same time, their transfers share transfer.concurrency
+    public static int getBatchConcurrency(){
+        return getInt("batch.concurrency", 4);
+    }
+
+    // budget of all transfers together, 0 for no limit
+    public static long getBandwidthBytesPerSecond(){
+        return getInt("bandwidth.kb.per.second", 0) * 1024L;
+    }
+
+    // files larger than this are sent as S3 multipart uploads
+    public static long getMultipartThresholdBytes(){
+        return getInt("multipart.threshold.mb", 16) * MEGABYTE;
+    }
+
+    public static long getMultipartPartSizeBytes(){
+        return getInt("multipart.part.mb", 8) * MEGABYTE;
+    }
+
+    // parts uploaded at the same time, shared by all multipart uploads
+    public static int getMultipartConcurrency(){
+        return getInt("multipart.concurrency", 8);
+    }
+
+    public static int getMultipartPartAttempts(){
+        return getInt("multipart.attempts", 3);
+    }
+
+    // objects larger than this are downloaded as ranged GETs and can be resumed
+    public static long getDownloadRangeThresholdBytes(){
+        return getInt("download.range.threshold.mb", 16) * MEGABYTE;
+    }
+
+    public static long getDownloadRangeSizeBytes(){
+        return getInt("download.range.mb", 8) * MEGABYTE;
+    }
+
+    // ranges downloaded at the same time, shared by all ranged downloads
+    public static int getDownloadRangeConcurrency(){
+        return getInt("download.range.concurrency", 8);
+    }
+
+    public static int getDownloadRangeAttempts(){
+        return getInt("download.range.attempts", 3);
+    }
+
+    // GetObjectTagging requests in flight while the bucket is scanned for album tags
+    public static int getTagConcurrency(){
+        return getInt("tags.concurrency", 32);
+    }
+
+    // ceiling of S3 requests in flight, the request limiter halves it on SlowDown and lets it grow back
+    public static int getRequestConcurrency(){
+        return getInt("requests.concurrency", 64);
+    }
+
+    // retries of a failed S3 request, with full jitter exponential backoff
+    public static int getRetryCount(){
+        return getInt("retry.count", 8);
+    }
+
+    public static long getRetryBaseDelayMillis(){
+        return getInt("retry.base.delay.ms", 100);
+    }
+
+    // SlowDown answers back off from a longer base delay
+    public static long getThrottleBaseDelayMillis(){
+        return getInt("retry.throttle.delay.ms", 500);
+    }
+
+    public static long getRetryMaxDelayMillis(){
+        return getInt("retry.max.delay.ms", 20_000);
+    }
+
+    // "apache" or "url-connection", the latter starts faster and keeps fewer classes loaded,
+    // but pools connections through the JDK (http.maxConnections) and ignores the acquire timeout
+    public static String getHttpClient(){
+        return getString("http.client", HTTP_CLIENT_APACHE);
+    }
+
+    // HTTP connections kept open to S3, requests beyond this wait for a free connection
+    public static int getHttpMaxConnections(){
+        return getInt("http.max.connections", 64);
+    }
+
+    public static long getHttpConnectTimeoutMillis(){
+        return getInt("http.connect.timeout.ms", 3_000);
+    }
+
+    // longest pause between two packets of a response
+    public static long getHttpSocketTimeoutMillis(){
+        return getInt("http.socket.timeout.ms", 30_000);
+    }
+
+    // longest wait for a free pooled connection
+    public static long getHttpAcquireTimeoutMillis(){
+        return getInt("http.acquire.timeout.ms", 60_000);
+    }
+
+    public static long getCacheTtlMillis(){
+        return getInt("cache.ttl.seconds", 300) * 1000L;
+    }
+
+    // images kept in the metadata cache before least recently used albums are evicted
+    public static int getCacheMaxEntries(){
+        return getInt("cache.max.entries", 100_000);
+    }
+
+    // previews of uploaded images, stored next to the originals for download --thumbs
+    public static boolean isThumbnailsEnabled(){
+        return Boolean.parseBoolean(getString("thumbnails", "false"));
+    }
+
+    // longest side of a preview in pixels
+    public static int getThumbnailSize(){
+        return getInt("thumbnail.size", 320);
+    }
+
+    // threads decoding and scaling images, apart from the transfer threads
+    public static int getThumbnailThreads(){
+        return getInt("thumbnail.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    // file the metadata cache is kept in between runs, not persisted when empty
+    public static String getCacheFile(){
+        return getString("cache.file", "");
+    }
+
+    // file the transfer metrics are written to every few seconds and on exit, JSON when it ends with .json,
+    // Prometheus text format otherwise
+    public static String getMetricsFile(){
+        return getString("metrics.file", "");
+    }
+
+    // loopback TCP port of the daemon mode
+    public static int getDaemonPort(){
+        return getInt("daemon.port", 7077);
+    }
+
+    // file the daemon keeps its connection token in, readable by the owner only; a client sends the token first
+    public static String getDaemonTokenFile(){
+        return getString("daemon.token.file",
+                Paths.get(System.getProperty("user.home"), ".cloudphoto-daemon-" + getDaemonPort() + ".token").toString());
+    }
+
+    // live progress line on stderr, off by default: rewritten in place it would run into the per-file lines
+    // printed to the same terminal
+    public static boolean isProgressEnabled(){
+        return Boolean.parseBoolean(getString("progress", "false"));
+    }
+
+    static String getString(String name, String defaultValue){
+        String value = System.getProperty(PROPERTY_PREFIX + name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    static int getInt(String name, int defaultValue){
+        String value = System.getProperty(PROPERTY_PREFIX + name);
+        if (value == null || value.trim().isEmpty()){
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value.trim());
+            return result > 0 ? result : defaultValue;
+        } catch (NumberFormatException numberFormatException) {
+            System.out.println("!Invalid value of " + PROPERTY_PREFIX + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
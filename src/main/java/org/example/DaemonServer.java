@@ -0,0 +1,208 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Daemon mode: one long running process keeps the S3 client with its pooled connections, the checked bucket
+ * and the metadata cache, and runs command lines sent to a TCP port of the loopback interface, so a script calling
+ * cloudphoto many times pays for the JVM and the client start once. A connection carries one command line,
+ * the answer is the output of the command and a last line with its exit code. Commands run one at a time:
+ * whatever thread a command prints from, System.out points at its connection while it runs.
+ * Every local user can connect to the port, so the daemon writes a random token to a file only its owner can read
+ * and drops connections whose first line is not the token.
+ */
+public class DaemonServer {
+    public static final String DAEMON_OPTION = "--daemon";
+    public static final String CLIENT_OPTION = "--client";
+    private static final String EXIT_CODE_PREFIX = "EXIT CODE: ";
+    private static final int BACKLOG = 50;
+    private static final int READ_TIMEOUT_MILLIS = 10_000; // a client that connects and sends nothing does not block the daemon
+    private static final int TOKEN_BYTES = 32;
+
+    private final int port;
+    private final Path tokenFile;
+    private byte[] token;
+
+    public DaemonServer(int port, Path tokenFile) {
+        this.port = port;
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * Serves connections until a client sends the exit command. The token file is removed when the daemon stops.
+     */
+    public void run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress())) {
+            // created once the port is ours, a second daemon on a busy port leaves the token of the first one alone
+            token = createToken(tokenFile);
+            try {
+                System.out.println("Daemon is listening on " + serverSocket.getLocalSocketAddress() + ", token in " + tokenFile);
+                boolean running = true;
+                while (running) {
+                    try (Socket socket = serverSocket.accept()) {
+                        running = serve(socket);
+                    } catch (IOException ioException) {
+                        System.out.println("!Connection failed: " + ioException.getMessage());
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(tokenFile);
+            }
+        }
+    }
+
+    /**
+     * Sends the command lines one after another to a running daemon and prints the answers.
+     * A relative PATH is resolved here, the daemon has another working directory.
+     *
+     * @return exit code, failure when any command failed
+     */
+    public static int sendCommands(int port, Path tokenFile, List<String> commandLines){
+        String token;
+        try {
+            token = readToken(tokenFile);
+        } catch (IOException ioException) {
+            System.out.println("!No daemon token in " + tokenFile + ", start a daemon with " + DAEMON_OPTION);
+            return BatchRunner.EXIT_FAILURE;
+        }
+        int exitCode = BatchRunner.EXIT_SUCCESS;
+        for (String commandLine : commandLines) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                writer.write(token + "\n");
+                writer.write(CommandParser.resolvePath(commandLine.trim()) + "\n");
+                writer.flush();
+                if (readAnswer(socket) != BatchRunner.EXIT_SUCCESS){
+                    exitCode = BatchRunner.EXIT_FAILURE;
+                }
+            } catch (ConnectException connectException) {
+                System.out.println("!No daemon on port " + port + ", start one with " + DAEMON_OPTION);
+                return BatchRunner.EXIT_FAILURE;
+            } catch (IOException ioException) {
+                System.out.println("!Daemon connection failed: " + ioException.getMessage());
+                return BatchRunner.EXIT_FAILURE;
+            }
+        }
+        return exitCode;
+    }
+
+    // returns false after the exit command
+    private boolean serve(Socket socket) throws IOException {
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String tokenLine = reader.readLine();
+        if (tokenLine == null || !MessageDigest.isEqual(token, tokenLine.trim().getBytes(StandardCharsets.UTF_8))){
+            System.out.println("!Connection without the daemon token dropped");
+            return true;
+        }
+        String commandLine = reader.readLine();
+        if (commandLine == null){
+            return true;
+        }
+        PrintStream console = System.out;
+        PrintStream connection = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), true, StandardCharsets.UTF_8.name());
+        console.println("> " + commandLine.trim());
+
+        Command command = CommandParser.parse(commandLine);
+        if (command != null && command.getCommandType() == CommandType.EXIT){
+            connection.println("Daemon stopped");
+            connection.println(EXIT_CODE_PREFIX + BatchRunner.EXIT_SUCCESS);
+            return false;
+        }
+
+        int exitCode;
+        System.setOut(connection);
+        try {
+            exitCode = execute(commandLine, command);
+        } finally {
+            System.setOut(console);
+        }
+        connection.println(EXIT_CODE_PREFIX + exitCode);
+        return true;
+    }
+
+    private static int execute(String commandLine, Command command){
+        if (command == null){
+            System.out.println("!Invalid command!");
+            return BatchRunner.EXIT_FAILURE;
+        }
+        try {
+            return Application.execute(command).isFailed() ? BatchRunner.EXIT_FAILURE : BatchRunner.EXIT_SUCCESS;
+        } catch (RuntimeException exception) {
+            System.out.println("!Command failed: " + commandLine.trim() + ": " + exception.getMessage());
+            return BatchRunner.EXIT_FAILURE;
+        }
+    }
+
+    // a new token for every start, the file is created readable and writable by its owner only
+    private static byte[] createToken(Path tokenFile) throws IOException {
+        byte[] randomBytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(randomBytes);
+        String token = Checksums.toHex(randomBytes);
+
+        Files.deleteIfExists(tokenFile);
+        if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")){
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }else {
+            File file = Files.createFile(tokenFile).toFile();
+            boolean restricted = file.setReadable(false, false) && file.setReadable(true, true)
+                    && file.setWritable(false, false) && file.setWritable(true, true);
+            if (!restricted){
+                System.out.println("!Cannot restrict the access to " + tokenFile);
+            }
+        }
+        Files.write(tokenFile, (token + "\n").getBytes(StandardCharsets.UTF_8));
+        return token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readToken(Path tokenFile) throws IOException {
+        List<String> lines = Files.readAllLines(tokenFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || lines.get(0).trim().isEmpty()){
+            throw new IOException("Empty token file " + tokenFile);
+        }
+        return lines.get(0).trim();
+    }
+
+    // prints the output, a line is held back until the next one shows it is not the exit code line
+    private static int readAnswer(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String previousLine = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (previousLine != null){
+                System.out.println(previousLine);
+            }
+            previousLine = line;
+        }
+        if (previousLine == null || !previousLine.startsWith(EXIT_CODE_PREFIX)){
+            if (previousLine != null){
+                System.out.println(previousLine);
+            }
+            System.out.println("!Daemon closed the connection before the command finished");
+            return BatchRunner.EXIT_FAILURE;
+        }
+        try {
+            return Integer.parseInt(previousLine.substring(EXIT_CODE_PREFIX.length()).trim());
+        } catch (NumberFormatException numberFormatException) {
+            return BatchRunner.EXIT_FAILURE;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.example;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Session cache of the album index: album names and, per album, the entries (key, size, ETag, blob key) together with
+ * the ETag of the index object they were read from. Cached data younger than the TTL is used as is, older data
+ * is revalidated by the caller with a conditional GET. Albums are evicted least recently used first once the
+ * cache holds more than {@code maxEntries} images. The cache can be saved to a gzip file and loaded on the next run.
+ */
+public class MetadataCache {
+    private static final int FILE_VERSION = 2;
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<String, CachedAlbum> albums = new LinkedHashMap<>(16, 0.75f, true);
+    private int entryCount;
+    private List<String> albumNames;
+    private long albumNamesFetchedAt;
+
+    public static class CachedAlbum {
+        private final List<AlbumIndex.Entry> entries;
+        private final String eTag;
+        private long fetchedAt;
+
+        CachedAlbum(List<AlbumIndex.Entry> entries, String eTag, long fetchedAt) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.eTag = eTag;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public List<AlbumIndex.Entry> getEntries() {
+            return entries;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
+
+    public MetadataCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Cached album, fresh or not, or null when the album is not cached.
+     */
+    public synchronized CachedAlbum getAlbum(String album){
+        return albums.get(album);
+    }
+
+    public synchronized boolean isFresh(CachedAlbum cachedAlbum){
+        return isFresh(cachedAlbum.fetchedAt);
+    }
+
+    // the index object did not change since it was cached
+    public synchronized void revalidated(CachedAlbum cachedAlbum){
+        cachedAlbum.fetchedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void putAlbum(String album, String eTag, List<AlbumIndex.Entry> entries){
+        removeAlbum(album);
+        albums.put(album, new CachedAlbum(new ArrayList<>(entries), eTag, System.currentTimeMillis()));
+        entryCount += entries.size();
+
+        Iterator<Map.Entry<String, CachedAlbum>> eldest = albums.entrySet().iterator();
+        while (entryCount > maxEntries && albums.size() > 1 && eldest.hasNext()) {
+            Map.Entry<String, CachedAlbum> evicted = eldest.next();
+            if (!evicted.getKey().equals(album)){
+                entryCount -= evicted.getValue().entries.size();
+                eldest.remove();
+            }
+        }
+
+        if (albumNames != null && !albumNames.contains(album)){
+            albumNames.add(album);
+            Collections.sort(albumNames);
+        }
+    }
+
+    public synchronized void removeAlbum(String album){
+        CachedAlbum removed = albums.remove(album);
+        if (removed != null){
+            entryCount -= removed.entries.size();
+        }
+        if (albumNames != null){
+            albumNames.remove(album);
+        }
+    }
+
+    /**
+     * Album names if they were listed less than TTL ago, otherwise null.
+     */
+    public synchronized List<String> getAlbumNames(){
+        return albumNames != null && isFresh(albumNamesFetchedAt) ? new ArrayList<>(albumNames) : null;
+    }
+
+    public synchronized void putAlbumNames(List<String> names){
+        albumNames = new ArrayList<>(names);
+        albumNamesFetchedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void clear(){
+        albums.clear();
+        entryCount = 0;
+        albumNames = null;
+    }
+
+    public synchronized void load(Path file) throws IOException {
+        if (!Files.exists(file)){
+            return;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (input.readInt() != FILE_VERSION){
+                return;
+            }
+            clear();
+
+            long namesFetchedAt = input.readLong();
+            int nameCount = input.readInt();
+            if (nameCount >= 0){
+                List<String> names = new ArrayList<>(nameCount);
+                for (int i = 0; i < nameCount; i++) {
+                    names.add(input.readUTF());
+                }
+                albumNames = names;
+                albumNamesFetchedAt = namesFetchedAt;
+            }
+
+            int albumCount = input.readInt();
+            for (int i = 0; i < albumCount; i++) {
+                String album = input.readUTF();
+                String eTag = input.readUTF();
+                long fetchedAt = input.readLong();
+                int size = input.readInt();
+                List<AlbumIndex.Entry> entries = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    entries.add(new AlbumIndex.Entry(input.readUTF(), input.readLong(), input.readUTF(), input.readUTF()));
+                }
+                albums.put(album, new CachedAlbum(entries, eTag, fetchedAt));
+                entryCount += size;
+            }
+        }
+    }
+
+    public synchronized void save(Path file) throws IOException {
+        if (file.getParent() != null){
+            Files.createDirectories(file.getParent());
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+            output.writeInt(FILE_VERSION);
+
+            output.writeLong(albumNamesFetchedAt);
+            output.writeInt(albumNames == null ? -1 : albumNames.size());
+            if (albumNames != null){
+                for (String name : albumNames) {
+                    output.writeUTF(name);
+                }
+            }
+
+            output.writeInt(albums.size());
+            for (Map.Entry<String, CachedAlbum> album : albums.entrySet()) {
+                output.writeUTF(album.getKey());
+                output.writeUTF(album.getValue().eTag == null ? "" : album.getValue().eTag);
+                output.writeLong(album.getValue().fetchedAt);
+                output.writeInt(album.getValue().entries.size());
+                for (AlbumIndex.Entry entry : album.getValue().entries) {
+                    output.writeUTF(entry.getKey());
+                    output.writeLong(entry.getSize());
+                    output.writeUTF(entry.getETag() == null ? "" : entry.getETag());
+                    output.writeUTF(entry.getBlobKey());
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean isFresh(long fetchedAt){
+        return System.currentTimeMillis() - fetchedAt < ttlMillis;
+    }
+}
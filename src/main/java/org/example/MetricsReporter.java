@@ -0,0 +1,87 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints a progress line to stderr once a second while files are transferred, rewriting it in place,
+ * and keeps the metrics file up to date. The file is written once more on {@link #close()}.
+ */
+public class MetricsReporter implements Closeable {
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+    private static final int TICKS_PER_FILE_WRITE = 5;
+
+    private final TransferMetrics metrics;
+    private final boolean progressEnabled;
+    private final Path metricsFile;
+    private final ScheduledExecutorService scheduler;
+    private final PrintStream progressStream = System.err;
+    private long lastBytes;
+    private long lastTickAt = System.nanoTime();
+    private int ticks;
+    private boolean progressShown;
+
+    /**
+     * @param metricsFile file to keep the metrics in or null
+     */
+    public MetricsReporter(TransferMetrics metrics, boolean progressEnabled, Path metricsFile) {
+        this.metrics = metrics;
+        this.progressEnabled = progressEnabled;
+        this.metricsFile = metricsFile;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cloudphoto-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (progressEnabled || metricsFile != null){
+            scheduler.scheduleAtFixedRate(this::tick, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void tick(){
+        long now = System.nanoTime();
+        long bytes = metrics.getTransferredBytes();
+        double bytesPerSecond = (bytes - lastBytes) * 1e9 / Math.max(1, now - lastTickAt);
+        lastBytes = bytes;
+        lastTickAt = now;
+
+        if (progressEnabled){
+            if (metrics.getTransfersInFlight() > 0){
+                progressStream.print("\r" + metrics.formatProgress(bytesPerSecond) + "   ");
+                progressStream.flush();
+                progressShown = true;
+            }else if (progressShown){
+                progressStream.println();
+                progressShown = false;
+            }
+        }
+        if (metricsFile != null && ++ticks % TICKS_PER_FILE_WRITE == 0){
+            saveMetrics();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        if (progressShown){
+            progressStream.println();
+        }
+        if (metricsFile != null){
+            saveMetrics();
+        }
+    }
+
+    private void saveMetrics(){
+        try {
+            metrics.save(metricsFile);
+        } catch (IOException ioException) {
+            System.out.println("!Cannot write metrics " + metricsFile + ": " + ioException.getMessage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+import org.example.storage.StorageBackend;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * S3 multipart upload of a single file. Parts are memory-mapped slices of the file uploaded concurrently
+ * on a pool shared by all files, every part is retried on its own and the whole upload is aborted
+ * when a part finally fails, so no incomplete upload is left in the bucket.
+ */
+public class MultipartUploader {
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024; // S3 limit for every part but the last one
+    private static final int MAX_PARTS = 10_000;
+
+    private final StorageBackend storage;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferMetrics metrics;
+    private final long partSize;
+    private final int maxAttempts;
+    private final ExecutorService partExecutor;
+
+    public MultipartUploader(StorageBackend storage, BandwidthLimiter bandwidthLimiter, TransferMetrics metrics,
+                             long partSize, int concurrency, int maxAttempts) {
+        this.storage = storage;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.metrics = metrics;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.maxAttempts = maxAttempts;
+        this.partExecutor = PartTransfers.newPool("cloudphoto-part-", concurrency);
+    }
+
+    /**
+     * Uploads the file and returns the ETag of the completed object.
+     */
+    public String upload(File file, String key, List<Tag> tags) throws IOException {
+        long fileSize = file.length();
+        long actualPartSize = Math.max(partSize, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+        int partCount = (int) Math.max(1, (fileSize + actualPartSize - 1) / actualPartSize);
+
+        String uploadId = storage.createMultipartUpload(key, tags);
+
+        boolean completed = false;
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Future<String>> futures = new ArrayList<>(partCount);
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                long offset = (partNumber - 1) * actualPartSize;
+                long length = Math.min(actualPartSize, fileSize - offset);
+                MappedByteBuffer part = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                int number = partNumber;
+                futures.add(partExecutor.submit(() -> uploadPart(key, uploadId, number, part)));
+            }
+
+            List<String> partETags = new ArrayList<>(partCount);
+            for (Future<String> future : futures) {
+                partETags.add(PartTransfers.await(future, futures, "Upload interrupted"));
+            }
+
+            String eTag = storage.completeMultipartUpload(key, uploadId, partETags);
+            completed = true;
+            return eTag;
+        } finally {
+            if (!completed){
+                abort(key, uploadId);
+            }
+        }
+    }
+
+    /**
+     * Aborts uploads of the bucket that were started more than {@code age} ago and never completed,
+     * e.g. because the process was killed in the middle of a transfer.
+     */
+    public int abortStaleUploads(Duration age){
+        Instant threshold = Instant.now().minus(age);
+        int abortedCount = 0;
+
+        for (MultipartUpload upload : (Iterable<MultipartUpload>) storage.listMultipartUploads()::iterator) {
+            if (upload.initiated() != null && upload.initiated().isBefore(threshold)){
+                abort(upload.key(), upload.uploadId());
+                abortedCount++;
+            }
+        }
+        return abortedCount;
+    }
+
+    private String uploadPart(String key, String uploadId, int partNumber, ByteBuffer part) throws IOException, InterruptedException {
+        return PartTransfers.retry("UploadPart", maxAttempts, metrics, () -> {
+            bandwidthLimiter.acquire(part.remaining());
+            return storage.uploadPart(key, uploadId, partNumber, part);
+        });
+    }
+
+    private void abort(String key, String uploadId){
+        try {
+            storage.abortMultipartUpload(key, uploadId);
+        } catch (SdkException sdkException) {
+            System.err.println("!Cannot abort multipart upload of " + key + ": " + sdkException.getMessage());
+        }
+    }
+}
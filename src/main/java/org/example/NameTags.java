@@ -0,0 +1,61 @@
+package org.example;
+
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Relative image name kept on a content-addressed blob, so "reindex" and the tag scan can name an image whose
+ * index entry is gone. Tag values allow only letters, digits, spaces and {@code _ . : / = + - @}, so the UTF-8 name
+ * is Base64 encoded and split over tags of 256 characters: cloudphoto-name, cloudphoto-name-2, ... A key of
+ * at most 1024 bytes needs 6 of the 10 tags an object can have.
+ */
+public final class NameTags {
+    public static final String TAG_KEY = "cloudphoto-name";
+    private static final int MAX_VALUE_LENGTH = 256;
+
+    private NameTags() {
+    }
+
+    public static List<Tag> toTags(String name){
+        String encoded = Base64.getEncoder().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+        List<Tag> tags = new ArrayList<>();
+        for (int start = 0; start < encoded.length(); start += MAX_VALUE_LENGTH) {
+            tags.add(Tag.builder()
+                    .key(getTagKey(tags.size() + 1))
+                    .value(encoded.substring(start, Math.min(encoded.length(), start + MAX_VALUE_LENGTH)))
+                    .build());
+        }
+        return tags;
+    }
+
+    /**
+     * @return the name stored by {@link #toTags}, null when the object has none or the tags are damaged
+     */
+    public static String fromTags(List<Tag> tags){
+        StringBuilder encoded = new StringBuilder();
+        for (int number = 1; ; number++) {
+            String tagKey = getTagKey(number);
+            Tag tag = tags.stream().filter(n -> n.key().equals(tagKey)).findFirst().orElse(null);
+            if (tag == null){
+                break;
+            }
+            encoded.append(tag.value());
+        }
+        if (encoded.length() == 0){
+            return null;
+        }
+        try {
+            return new String(Base64.getDecoder().decode(encoded.toString()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            return null;
+        }
+    }
+
+    private static String getTagKey(int number){
+        return number == 1 ? TAG_KEY : TAG_KEY + "-" + number;
+    }
+}
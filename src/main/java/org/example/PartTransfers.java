@@ -0,0 +1,103 @@
+package org.example;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What multipart uploads and ranged downloads have in common: the pieces of all files run on one pool,
+ * a failed piece is retried on its own with an exponential backoff, and the first piece that finally fails
+ * cancels the others.
+ */
+final class PartTransfers {
+    private static final long RETRY_BASE_DELAY_MILLIS = 200;
+    private static final int HTTP_CLIENT_ERROR = 400;
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private PartTransfers() {
+    }
+
+    /**
+     * A single attempt to transfer a piece.
+     */
+    interface Attempt<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    // daemon threads, an idle pool does not keep the process alive
+    static ExecutorService newPool(String threadNamePrefix, int threads){
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the attempt until it succeeds or {@code maxAttempts} have failed, counting every retry as {@code operation}.
+     * A client error other than throttling, e.g. a changed object or a denied access, fails at once.
+     */
+    static <T> T retry(String operation, int maxAttempts, TransferMetrics metrics, Attempt<T> attempt) throws IOException, InterruptedException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.run();
+            } catch (IOException | SdkException exception) {
+                if (attemptNumber >= maxAttempts || isClientError(exception)){
+                    throw exception;
+                }
+                metrics.retry(operation);
+                Thread.sleep(RETRY_BASE_DELAY_MILLIS << (attemptNumber - 1));
+            }
+        }
+    }
+
+    /**
+     * Whether the object changed since the ETag the request was conditioned on.
+     */
+    static boolean isPreconditionFailed(Exception exception){
+        return exception instanceof SdkServiceException
+                && ((SdkServiceException) exception).statusCode() == HTTP_PRECONDITION_FAILED;
+    }
+
+    // the same request gets the same answer, only a throttled one is worth another attempt
+    private static boolean isClientError(Exception exception){
+        if (!(exception instanceof SdkServiceException)){
+            return false;
+        }
+        SdkServiceException serviceException = (SdkServiceException) exception;
+        return serviceException.statusCode() >= HTTP_CLIENT_ERROR && serviceException.statusCode() < HTTP_SERVER_ERROR
+                && !serviceException.isThrottlingException();
+    }
+
+    /**
+     * Waits for one piece, a failure cancels all pieces of the file and is thrown as it was.
+     */
+    static <T> T await(Future<T> future, List<? extends Future<?>> allFutures, String interruptedMessage) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            allFutures.forEach(n -> n.cancel(true));
+            throw new IOException(interruptedMessage, interruptedException);
+        } catch (ExecutionException executionException) {
+            allFutures.forEach(n -> n.cancel(true));
+            Throwable cause = executionException.getCause();
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+}
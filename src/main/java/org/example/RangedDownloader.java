@@ -0,0 +1,219 @@
+package org.example;
+
+import org.example.storage.ObjectStream;
+import org.example.storage.StorageBackend;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Download of a single large object as concurrent ranged GETs on a pool shared by all files. Every range is
+ * written at its offset into the preallocated part file and retried on its own. Completed ranges are listed
+ * in a ".ranges" file next to the part file, so a download that failed midway or was killed resumes with the
+ * missing ranges only. Ranges are fed to the content digest in file order as soon as they are contiguous,
+ * resumed ranges included, so the check of the content is done when the last range arrives.
+ */
+public class RangedDownloader {
+    // no range was fetched, every one was resumed: no server-side encryption value, so no MD5 ETag is trusted
+    public static final String UNKNOWN_ENCRYPTION = "unknown";
+    private static final String RANGES_FILE_SUFFIX = ".ranges";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final StorageBackend storage;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferMetrics metrics;
+    private final long rangeSize;
+    private final int maxAttempts;
+    private final ExecutorService rangeExecutor;
+
+    public RangedDownloader(StorageBackend storage, BandwidthLimiter bandwidthLimiter, TransferMetrics metrics,
+                            long rangeSize, int concurrency, int maxAttempts) {
+        this.storage = storage;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.metrics = metrics;
+        this.rangeSize = rangeSize;
+        this.maxAttempts = maxAttempts;
+        this.rangeExecutor = PartTransfers.newPool("cloudphoto-range-", concurrency);
+    }
+
+    /**
+     * Downloads the object into {@code partFile}. The part file is kept for a resume when a range finally fails,
+     * unless the object no longer has {@code eTag}; the ranges file is removed once the object is complete.
+     *
+     * @param eTag   ETag the object must still have, completed ranges of another ETag are not resumed
+     * @param digest digest the content is fed to in order, or null
+     * @return server-side encryption the ranges were served with, null when not encrypted,
+     * {@link #UNKNOWN_ENCRYPTION} when every range was resumed
+     */
+    public String download(String key, long size, String eTag, Path partFile, MessageDigest digest) throws IOException {
+        Path rangesFile = getRangesFile(partFile);
+        String header = eTag + "\t" + size + "\t" + rangeSize;
+        BitSet completedRanges = loadCompletedRanges(rangesFile, partFile, header, size);
+        AtomicReference<String> serverSideEncryption = new AtomicReference<>(UNKNOWN_ENCRYPTION);
+
+        try {
+            downloadRanges(key, size, eTag, partFile, rangesFile, header, completedRanges, digest, serverSideEncryption);
+        } catch (SdkServiceException serviceException) {
+            if (PartTransfers.isPreconditionFailed(serviceException)){
+                discard(partFile); // the object changed, its ranges are not resumed
+            }
+            throw serviceException;
+        }
+        Files.deleteIfExists(rangesFile);
+        return serverSideEncryption.get();
+    }
+
+    /**
+     * Removes the part file and what is known about its ranges, e.g. after its content did not match.
+     */
+    public static void discard(Path partFile) throws IOException {
+        Files.deleteIfExists(partFile);
+        Files.deleteIfExists(getRangesFile(partFile));
+    }
+
+    private void downloadRanges(String key, long size, String eTag, Path partFile, Path rangesFile, String header,
+                                BitSet completedRanges, MessageDigest digest, AtomicReference<String> serverSideEncryption) throws IOException {
+        int rangeCount = (int) ((size + rangeSize - 1) / rangeSize);
+        try (FileChannel fileChannel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (completedRanges.isEmpty()){
+                fileChannel.truncate(0);
+            }
+            if (fileChannel.size() < size){
+                fileChannel.write(ByteBuffer.allocate(1), size - 1); // preallocated, sparse where the file system allows
+            }
+            RangeDigest rangeDigest = new RangeDigest(fileChannel, digest, size);
+
+            List<Future<Void>> futures = new ArrayList<>(rangeCount);
+            for (int index = 0; index < rangeCount; index++) {
+                if (completedRanges.get(index)){
+                    rangeDigest.complete(index);
+                    continue;
+                }
+                int rangeIndex = index;
+                futures.add(rangeExecutor.submit(() -> {
+                    long start = rangeIndex * rangeSize;
+                    serverSideEncryption.set(downloadRange(key, eTag, fileChannel, start, Math.min(size, start + rangeSize) - 1));
+                    synchronized (completedRanges) {
+                        completedRanges.set(rangeIndex);
+                        saveCompletedRanges(rangesFile, header, completedRanges);
+                    }
+                    rangeDigest.complete(rangeIndex);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                PartTransfers.await(future, futures, "Download interrupted");
+            }
+        }
+    }
+
+    // returns the server-side encryption the range was served with
+    private String downloadRange(String key, String eTag, FileChannel fileChannel, long start, long end) throws IOException, InterruptedException {
+        return PartTransfers.retry("GetObjectRange", maxAttempts, metrics, () -> {
+            bandwidthLimiter.acquire(end - start + 1);
+            return writeRange(key, eTag, fileChannel, start, end);
+        });
+    }
+
+    private String writeRange(String key, String eTag, FileChannel fileChannel, long start, long end) throws IOException {
+        long position = start;
+        String serverSideEncryption;
+        try (ObjectStream rangeStream = storage.getObjectRange(key, start, end, eTag)) {
+            serverSideEncryption = rangeStream.getServerSideEncryption();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = rangeStream.read(buffer)) != -1) {
+                if (position + read > end + 1){
+                    throw new IOException("!Range of " + key + " is longer than requested");
+                }
+                ByteBuffer content = ByteBuffer.wrap(buffer, 0, read);
+                while (content.hasRemaining()) {
+                    position += fileChannel.write(content, position);
+                }
+            }
+        }
+        if (position != end + 1){
+            throw new IOException("!Range of " + key + " ended after " + (position - start) + " of " + (end - start + 1) + " bytes");
+        }
+        return serverSideEncryption;
+    }
+
+    private static Path getRangesFile(Path partFile){
+        return partFile.resolveSibling(partFile.getFileName() + RANGES_FILE_SUFFIX);
+    }
+
+    // ranges of a part file that belongs to another object version or range size are downloaded again
+    private static BitSet loadCompletedRanges(Path rangesFile, Path partFile, String header, long size) throws IOException {
+        BitSet completedRanges = new BitSet();
+        if (!Files.exists(rangesFile) || !Files.exists(partFile) || Files.size(partFile) != size){
+            return completedRanges;
+        }
+        List<String> lines = Files.readAllLines(rangesFile, StandardCharsets.UTF_8);
+        if (lines.size() != 2 || !lines.get(0).equals(header)){
+            return completedRanges;
+        }
+        try {
+            for (String index : lines.get(1).split(",")) {
+                if (!index.isEmpty()){
+                    completedRanges.set(Integer.parseInt(index));
+                }
+            }
+        } catch (NumberFormatException numberFormatException) {
+            completedRanges.clear();
+        }
+        return completedRanges;
+    }
+
+    // written aside and moved over the old file, a crash leaves the previous list and not half of one
+    private static void saveCompletedRanges(Path rangesFile, String header, BitSet completedRanges) throws IOException {
+        StringBuilder content = new StringBuilder(header).append('\n');
+        completedRanges.stream().forEach(n -> content.append(n).append(','));
+        Path tempFile = rangesFile.resolveSibling(rangesFile.getFileName() + ".tmp");
+        Files.write(tempFile, content.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, rangesFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Feeds completed ranges to the digest in file order, a range that completes early waits
+     * until the ranges before it are there.
+     */
+    private class RangeDigest {
+        private final FileChannel fileChannel;
+        private final MessageDigest digest;
+        private final long size;
+        private final BitSet completedRanges = new BitSet();
+        private int nextRange;
+
+        RangeDigest(FileChannel fileChannel, MessageDigest digest, long size) {
+            this.fileChannel = fileChannel;
+            this.digest = digest;
+            this.size = size;
+        }
+
+        synchronized void complete(int index) throws IOException {
+            if (digest == null){
+                return;
+            }
+            completedRanges.set(index);
+            while (completedRanges.get(nextRange)) {
+                long start = nextRange * rangeSize;
+                digest.update(fileChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(rangeSize, size - start)));
+                nextRange++;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Local state of "sync" kept in {@link #FILE_NAME} inside the synchronized folder: for every file the size and
+ * modification time it had when it was last transferred and the ETag of the object it matches.
+ * Records are appended to the file right after every transfer, so an interrupted run resumes
+ * from the last transferred file; {@link #close()} compacts the file.
+ */
+public class SyncState implements Closeable {
+    public static final String FILE_NAME = ".cloudphoto-sync";
+    private static final char FIELD_SEPARATOR = '\t';
+
+    private final Path stateFile;
+    private final Map<String, Record> records = new HashMap<>();
+    private final Writer journal;
+
+    public static class Record {
+        private final long size;
+        private final long lastModified;
+        private final String eTag;
+
+        Record(long size, long lastModified, String eTag) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.eTag = eTag;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public boolean matches(File file){
+            return file.isFile() && file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    public SyncState(Path folder) throws IOException {
+        this.stateFile = folder.resolve(FILE_NAME);
+        if (Files.exists(stateFile)){
+            for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+                if (fields.length == 5){
+                    try {
+                        records.put(toKey(AlbumIndex.unescape(fields[0]), AlbumIndex.unescape(fields[1])),
+                                new Record(Long.parseLong(fields[2]), Long.parseLong(fields[3]), AlbumIndex.unescape(fields[4])));
+                    } catch (NumberFormatException ignored) {
+                        // a line cut by a killed process, the file is transferred again
+                    }
+                }
+            }
+        }
+        this.journal = Files.newBufferedWriter(stateFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public static boolean isStateFile(File file){
+        return file.getName().equals(FILE_NAME);
+    }
+
+    public synchronized Record get(String album, String name){
+        return records.get(toKey(album, name));
+    }
+
+    /**
+     * @param name object key of the file, its path relative to the synchronized folder
+     */
+    public synchronized void record(String album, String name, File file, String eTag) throws IOException {
+        Record record = new Record(file.length(), file.lastModified(), eTag);
+        records.put(toKey(album, name), record);
+        writeLine(journal, album, name, record);
+        journal.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journal.close();
+
+        Path compactedFile = stateFile.resolveSibling(FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(compactedFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                int separator = entry.getKey().indexOf(FIELD_SEPARATOR);
+                writeLine(writer, entry.getKey().substring(0, separator), entry.getKey().substring(separator + 1), entry.getValue());
+            }
+        }
+        Files.move(compactedFile, stateFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // albums are matched ignoring case, like album tags
+    private static String toKey(String album, String name){
+        return album.toLowerCase(Locale.ROOT) + FIELD_SEPARATOR + name;
+    }
+
+    private static void writeLine(Writer writer, String album, String name, Record record) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        AlbumIndex.appendEscaped(builder, album.toLowerCase(Locale.ROOT));
+        builder.append(FIELD_SEPARATOR);
+        AlbumIndex.appendEscaped(builder, name);
+        builder.append(FIELD_SEPARATOR).append(record.size)
+                .append(FIELD_SEPARATOR).append(record.lastModified)
+                .append(FIELD_SEPARATOR);
+        AlbumIndex.appendEscaped(builder, record.eTag);
+        builder.append('\n');
+        writer.write(builder.toString());
+    }
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import org.example.storage.StorageBackend;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Resolves tags of listed objects with concurrent GetObjectTagging requests. Objects are taken from the listing
+ * one chunk at a time, duplicate keys of a chunk are requested once, and results come out in listing order.
+ * SlowDown answers are retried by the S3 client and slow down all requests through the request limiter.
+ */
+public class TagResolver {
+    private static final int CHUNK_SIZE = 1000; // one ListObjectsV2 page
+
+    private final StorageBackend storage;
+    private final ExecutorService executorService;
+
+    public static class TaggedObject {
+        private final S3Object s3Object;
+        private final List<Tag> tags;
+
+        TaggedObject(S3Object s3Object, List<Tag> tags) {
+            this.s3Object = s3Object;
+            this.tags = tags;
+        }
+
+        public S3Object getS3Object() {
+            return s3Object;
+        }
+
+        public List<Tag> getTags() {
+            return tags;
+        }
+    }
+
+    public TagResolver(StorageBackend storage, int parallelism) {
+        this.storage = storage;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executorService = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "cloudphoto-tags-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Lazily pairs every listed object with its tags, keeping the order of {@code s3Objects}.
+     */
+    public Stream<TaggedObject> resolve(Stream<S3Object> s3Objects){
+        Iterator<S3Object> source = s3Objects.iterator();
+
+        Iterator<TaggedObject> results = new Iterator<TaggedObject>() {
+            private Iterator<TaggedObject> chunk = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!chunk.hasNext() && source.hasNext()) {
+                    chunk = resolveChunk(source).iterator();
+                }
+                return chunk.hasNext();
+            }
+
+            @Override
+            public TaggedObject next() {
+                if (!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return chunk.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED), false);
+    }
+
+    private List<TaggedObject> resolveChunk(Iterator<S3Object> source){
+        List<S3Object> chunk = new ArrayList<>(CHUNK_SIZE);
+        Map<String, Future<List<Tag>>> requests = new HashMap<>();
+
+        while (chunk.size() < CHUNK_SIZE && source.hasNext()) {
+            S3Object s3Object = source.next();
+            chunk.add(s3Object);
+            requests.computeIfAbsent(s3Object.key(), key -> executorService.submit(() -> storage.getObjectTags(key)));
+        }
+
+        List<TaggedObject> results = new ArrayList<>(chunk.size());
+        try {
+            for (S3Object s3Object : chunk) {
+                results.add(new TaggedObject(s3Object, requests.get(s3Object.key()).get()));
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            requests.values().forEach(n -> n.cancel(true));
+            throw new CancellationException("Tag lookup interrupted");
+        } catch (ExecutionException executionException) {
+            requests.values().forEach(n -> n.cancel(true));
+            Throwable cause = executionException.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+        }
+        return results;
+    }
+
+}
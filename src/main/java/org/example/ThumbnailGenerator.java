@@ -0,0 +1,148 @@
+package org.example;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downscaled previews of uploaded images, rendered on a pool of CPU threads of its own, so decoding and scaling
+ * run while the transfer threads send the originals. A preview is stored under {@link #THUMBNAIL_PREFIX}
+ * followed by the key of the original object and keeps its format: JPEG stays JPEG, PNG stays PNG.
+ * Large images are decoded subsampled, a full resolution raster is never held in memory.
+ */
+public class ThumbnailGenerator {
+    public static final String THUMBNAIL_PREFIX = "cloudphoto-thumbs/";
+    private static final String FORMAT_PNG = "png";
+    private static final String FORMAT_JPEG = "jpeg";
+    private static final float JPEG_QUALITY = 0.8f;
+
+    private final int maxSize;
+    private final ExecutorService executorService;
+
+    public static class Thumbnail {
+        private final byte[] content;
+        private final String contentType;
+
+        Thumbnail(byte[] content, String contentType) {
+            this.content = content;
+            this.contentType = contentType;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * @param maxSize longest side of a preview in pixels
+     */
+    public ThumbnailGenerator(int threads, int maxSize) {
+        this.maxSize = maxSize;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "cloudphoto-thumbnail-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static String getThumbnailKey(String objectKey){
+        return THUMBNAIL_PREFIX + objectKey;
+    }
+
+    /**
+     * Renders the preview in the background, the future fails with an {@link UncheckedIOException}
+     * when the file is not a readable image.
+     */
+    public CompletableFuture<Thumbnail> render(File file){
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return createThumbnail(file);
+            } catch (IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+        }, executorService);
+    }
+
+    private Thumbnail createThumbnail(File file) throws IOException {
+        String format = file.getName().toLowerCase(Locale.ROOT).endsWith(".png") ? FORMAT_PNG : FORMAT_JPEG;
+        BufferedImage image = scale(read(file), format.equals(FORMAT_PNG));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(imageOutput);
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            if (format.equals(FORMAT_JPEG)){
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionQuality(JPEG_QUALITY);
+            }
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            writer.dispose();
+        }
+        return new Thumbnail(output.toByteArray(), "image/" + format);
+    }
+
+    // decodes every n-th pixel of images more than twice as large as the preview
+    private BufferedImage read(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()){
+                throw new IOException("not a readable image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longestSide / (2 * maxSize));
+
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, readParam);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image, boolean alpha){
+        double factor = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+        BufferedImage scaled = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+}
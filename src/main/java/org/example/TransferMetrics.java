@@ -0,0 +1,199 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counters of transfers and storage requests by operation: completed and failed calls, retries, calls in flight,
+ * bytes and a latency histogram. Operations are whole file transfers ({@link #UPLOAD}, {@link #DOWNLOAD})
+ * and single requests named after the S3 API calls. The metrics can be rendered as a progress line,
+ * JSON or Prometheus text exposition format.
+ */
+public class TransferMetrics {
+    public static final String UPLOAD = "upload";
+    public static final String DOWNLOAD = "download";
+
+    private final Map<String, Operation> operations = new ConcurrentSkipListMap<>();
+    private final long startedAt = System.nanoTime();
+
+    private static class Operation {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /**
+     * Latencies in exponential buckets, four per power of two from 1 microsecond, so a percentile is off
+     * by less than 19% with a fixed amount of memory however many calls are recorded.
+     */
+    private static class LatencyHistogram {
+        private static final int BUCKETS_PER_POWER_OF_TWO = 4;
+        private static final int BUCKET_COUNT = 40 * BUCKETS_PER_POWER_OF_TWO; // up to 2^40 us, about 12 days
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos){
+            long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+            int bucket = (int) Math.ceil(BUCKETS_PER_POWER_OF_TWO * Math.log(micros) / Math.log(2));
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        // upper bound of the bucket holding the quantile, in seconds
+        double quantileSeconds(double quantile){
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0){
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank){
+                    return Math.min(Math.pow(2, (double) i / BUCKETS_PER_POWER_OF_TWO) / 1e6, maxNanos.get() / 1e9);
+                }
+            }
+            return maxNanos.get() / 1e9;
+        }
+    }
+
+    /**
+     * Marks the start of a call, the returned start time is passed to {@link #finish}.
+     */
+    public long start(String operation){
+        getOperation(operation).inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void finish(String operation, long startedAt, long bytes, boolean success){
+        Operation metrics = getOperation(operation);
+        metrics.inFlight.decrementAndGet();
+        metrics.latency.record(System.nanoTime() - startedAt);
+        metrics.count.incrementAndGet();
+        metrics.bytes.addAndGet(bytes);
+        if (!success){
+            metrics.errors.incrementAndGet();
+        }
+    }
+
+    public void retry(String operation){
+        getOperation(operation).retries.incrementAndGet();
+    }
+
+    // bytes of whole file transfers, request operations do not count, so nothing is counted twice
+    public long getTransferredBytes(){
+        return getOperation(UPLOAD).bytes.get() + getOperation(DOWNLOAD).bytes.get();
+    }
+
+    public int getTransfersInFlight(){
+        return getOperation(UPLOAD).inFlight.get() + getOperation(DOWNLOAD).inFlight.get();
+    }
+
+    /**
+     * One-line progress, e.g. {@code upload 120 ok/2 failed/16 active | download 0 ok/0 failed/0 active | 12.40 MB/s}.
+     */
+    public String formatProgress(double bytesPerSecond){
+        StringBuilder builder = new StringBuilder();
+        for (String name : new String[]{UPLOAD, DOWNLOAD}) {
+            Operation metrics = getOperation(name);
+            builder.append(name).append(' ')
+                    .append(metrics.count.get() - metrics.errors.get()).append(" ok/")
+                    .append(metrics.errors.get()).append(" failed/")
+                    .append(metrics.inFlight.get()).append(" active | ");
+        }
+        return builder.append(String.format(Locale.ROOT, "%.2f MB/s", bytesPerSecond / (1024 * 1024))).toString();
+    }
+
+    public String toJson(){
+        double uptimeSeconds = (System.nanoTime() - startedAt) / 1e9;
+        StringBuilder builder = new StringBuilder("{\n");
+        builder.append(String.format(Locale.ROOT, "  \"uptimeSeconds\": %.3f,\n", uptimeSeconds));
+        builder.append(String.format(Locale.ROOT, "  \"bytesPerSecond\": %.1f,\n", getTransferredBytes() / Math.max(uptimeSeconds, 1e-3)));
+        builder.append("  \"operations\": {");
+
+        String separator = "\n";
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            Operation metrics = entry.getValue();
+            builder.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"errors\": %d, \"retries\": %d, \"inFlight\": %d, \"bytes\": %d, " +
+                            "\"latencySeconds\": {\"p50\": %.6f, \"p99\": %.6f, \"max\": %.6f}}",
+                    entry.getKey(), metrics.count.get(), metrics.errors.get(), metrics.retries.get(), metrics.inFlight.get(),
+                    metrics.bytes.get(), metrics.latency.quantileSeconds(0.5), metrics.latency.quantileSeconds(0.99),
+                    metrics.latency.maxNanos.get() / 1e9));
+            separator = ",\n";
+        }
+        return builder.append("\n  }\n}\n").toString();
+    }
+
+    public String toPrometheus(){
+        StringBuilder builder = new StringBuilder();
+        appendCounter(builder, "cloudphoto_operations_total", "Completed calls", n -> n.count.get());
+        appendCounter(builder, "cloudphoto_errors_total", "Failed calls", n -> n.errors.get());
+        appendCounter(builder, "cloudphoto_retries_total", "Retried calls", n -> n.retries.get());
+        appendCounter(builder, "cloudphoto_bytes_total", "Transferred bytes", n -> n.bytes.get());
+
+        builder.append("# HELP cloudphoto_in_flight Calls in progress\n# TYPE cloudphoto_in_flight gauge\n");
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            builder.append("cloudphoto_in_flight{operation=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().inFlight.get()).append('\n');
+        }
+
+        builder.append("# HELP cloudphoto_latency_seconds Call latency\n# TYPE cloudphoto_latency_seconds summary\n");
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            String labels = "operation=\"" + entry.getKey() + "\"";
+            builder.append(String.format(Locale.ROOT, "cloudphoto_latency_seconds{%s,quantile=\"0.5\"} %.6f\n", labels, latency.quantileSeconds(0.5)))
+                    .append(String.format(Locale.ROOT, "cloudphoto_latency_seconds{%s,quantile=\"0.99\"} %.6f\n", labels, latency.quantileSeconds(0.99)))
+                    .append(String.format(Locale.ROOT, "cloudphoto_latency_seconds_sum{%s} %.6f\n", labels, latency.totalNanos.get() / 1e9))
+                    .append(String.format(Locale.ROOT, "cloudphoto_latency_seconds_count{%s} %d\n", labels, entry.getValue().count.get()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the metrics as JSON when the file name ends with .json, in Prometheus text format otherwise
+     * (e.g. for the node exporter textfile collector). The file is replaced atomically.
+     */
+    public void save(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(file.getFileName().toString().endsWith(".json") ? toJson() : toPrometheus());
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void appendCounter(StringBuilder builder, String name, String help, ToLongFunction<Operation> value){
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            builder.append(name).append("{operation=\"").append(entry.getKey()).append("\"} ")
+                    .append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    private Operation getOperation(String operation){
+        return operations.computeIfAbsent(operation, n -> new Operation());
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of transfer threads with a limit on in-flight tasks.
+ * {@link Batch#submit(Runnable)} blocks while the limit is reached, so a producer walking a huge
+ * directory never gets more than {@code concurrency} files ahead of the network.
+ */
+public class TransferScheduler {
+    private final ExecutorService executorService;
+    private final Semaphore inFlight;
+
+    public TransferScheduler(int concurrency) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "cloudphoto-transfer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executorService = Executors.newFixedThreadPool(concurrency, threadFactory);
+        this.inFlight = new Semaphore(concurrency);
+    }
+
+    public Batch newBatch(){
+        return new Batch();
+    }
+
+    /**
+     * Group of tasks of a single command that can be awaited together.
+     */
+    public class Batch {
+        private int pending;
+
+        public void submit(Runnable task) throws InterruptedException {
+            inFlight.acquire();
+            synchronized (this) {
+                pending++;
+            }
+            try {
+                executorService.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.release();
+                        complete();
+                    }
+                });
+            } catch (RuntimeException rejected) {
+                inFlight.release();
+                complete();
+                throw rejected;
+            }
+        }
+
+        public synchronized void await() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+
+        private synchronized void complete(){
+            pending--;
+            if (pending == 0){
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File counts of a transfer command, updated by the transfer threads. A batch adds up the summaries of its commands.
+ */
+public class TransferSummary {
+    private final AtomicInteger totalCount = new AtomicInteger();
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger unchangedCount = new AtomicInteger();
+    private volatile boolean commandFailed;
+
+    public void addFile(){
+        totalCount.incrementAndGet();
+    }
+
+    public void addSuccess(){
+        successCount.incrementAndGet();
+    }
+
+    public void addUnchanged(){
+        unchangedCount.incrementAndGet();
+    }
+
+    // the command could not run at all, e.g. the folder or the album does not exist
+    public void fail(){
+        commandFailed = true;
+    }
+
+    public void add(TransferSummary summary){
+        totalCount.addAndGet(summary.getTotalCount());
+        successCount.addAndGet(summary.getSuccessCount());
+        unchangedCount.addAndGet(summary.getUnchangedCount());
+    }
+
+    public boolean isFailed(){
+        return commandFailed || getFailedCount() > 0;
+    }
+
+    public int getTotalCount() {
+        return totalCount.get();
+    }
+
+    public int getSuccessCount() {
+        return successCount.get();
+    }
+
+    public int getUnchangedCount() {
+        return unchangedCount.get();
+    }
+
+    public int getFailedCount() {
+        return getTotalCount() - getSuccessCount() - getUnchangedCount();
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.storage;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lets a decorating backend wrap the request behind each page of a lazy listing. The listing fetches a page
+ * when the first object of it is asked for, so the wrapper runs the {@code hasNext()} at every page boundary
+ * through the given call and lets the other objects pass.
+ */
+final class ListingPages {
+    private static final int LIST_PAGE_SIZE = 1000; // objects of a full ListObjectsV2 page
+
+    private ListingPages() {
+    }
+
+    /**
+     * @param pageCall runs the {@code hasNext()} that may fetch the next page, e.g. timed or holding a request slot
+     */
+    static Stream<S3Object> wrap(Stream<S3Object> listing, Function<Supplier<Boolean>, Boolean> pageCall){
+        Iterator<S3Object> objects = listing.iterator();
+
+        Iterator<S3Object> wrappedObjects = new Iterator<S3Object>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                if (index % LIST_PAGE_SIZE != 0){
+                    return objects.hasNext();
+                }
+                return pageCall.apply(objects::hasNext);
+            }
+
+            @Override
+            public S3Object next() {
+                S3Object s3Object = objects.next();
+                index++;
+                return s3Object;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(wrappedObjects, Spliterator.ORDERED), false);
+    }
+}
@@ -0,0 +1,261 @@
+package org.example.storage;
+
+import org.example.Checksums;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Bucket kept in a sorted in-memory map, for offline runs, soak tests and benchmarks of the transfer code
+ * without network or AWS. ETags are computed the way S3 does it, so sync and integrity checks behave the same.
+ * The content is lost when the process exits.
+ */
+public class MemoryStorageBackend implements StorageBackend {
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    private final String bucketName;
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, PendingUpload> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong uploadIds = new AtomicLong();
+    private volatile boolean bucketCreated;
+
+    private static class StoredObject {
+        final byte[] content;
+        final String eTag;
+        final List<Tag> tags;
+        final Instant lastModified = Instant.now();
+
+        StoredObject(byte[] content, String eTag, List<Tag> tags) {
+            this.content = content;
+            this.eTag = eTag;
+            this.tags = tags;
+        }
+
+        StoredObject withTags(List<Tag> newTags){
+            return new StoredObject(content, eTag, newTags);
+        }
+    }
+
+    private static class PendingUpload {
+        final String key;
+        final List<Tag> tags;
+        final Instant initiated = Instant.now();
+        final Map<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+
+        PendingUpload(String key, List<Tag> tags) {
+            this.key = key;
+            this.tags = tags;
+        }
+    }
+
+    public MemoryStorageBackend(String bucketName) {
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public boolean bucketExists() {
+        return bucketCreated;
+    }
+
+    @Override
+    public void createBucket() {
+        bucketCreated = true;
+    }
+
+    @Override
+    public String putObject(String key, Path file, List<Tag> tags) throws IOException {
+        return store(key, Files.readAllBytes(file), tags);
+    }
+
+    @Override
+    public String putObject(String key, byte[] content, String contentType) {
+        return store(key, content.clone(), new ArrayList<>());
+    }
+
+    @Override
+    public String putObjectIfMatch(String key, byte[] content, String contentType, String ifMatch) {
+        StoredObject newObject = new StoredObject(content.clone(), quote(Checksums.toHex(Checksums.newDigest("MD5").digest(content))), new ArrayList<>());
+        StoredObject storedObject = objects.compute(key, (n, stored) ->
+                (ifMatch == null ? stored == null : stored != null && stored.eTag.equals(ifMatch)) ? newObject : stored);
+        return storedObject == newObject ? newObject.eTag : null;
+    }
+
+    @Override
+    public ObjectStream getObject(String key) throws IOException {
+        StoredObject storedObject = objects.get(key);
+        if (storedObject == null){
+            throw new NoSuchFileException(key);
+        }
+        return new ObjectStream(new ByteArrayInputStream(storedObject.content), null);
+    }
+
+    @Override
+    public ObjectStream getObjectRange(String key, long start, long end, String ifMatch) throws IOException {
+        StoredObject storedObject = objects.get(key);
+        if (storedObject == null){
+            throw new NoSuchFileException(key);
+        }
+        if (ifMatch != null && !ifMatch.equals(storedObject.eTag)){
+            throw S3Exception.builder().statusCode(HTTP_PRECONDITION_FAILED).message("PreconditionFailed: " + key).build();
+        }
+        int from = (int) Math.min(start, storedObject.content.length);
+        int to = (int) Math.min(end + 1, storedObject.content.length);
+        return new ObjectStream(new ByteArrayInputStream(storedObject.content, from, Math.max(0, to - from)), null);
+    }
+
+    @Override
+    public ObjectContent getObjectContent(String key, String ifNoneMatch) {
+        StoredObject storedObject = objects.get(key);
+        if (storedObject == null){
+            return null;
+        }
+        return storedObject.eTag.equals(ifNoneMatch)
+                ? ObjectContent.notModified(ifNoneMatch)
+                : new ObjectContent(storedObject.content.clone(), storedObject.eTag);
+    }
+
+    @Override
+    public S3Object headObject(String key) {
+        StoredObject storedObject = objects.get(key);
+        return storedObject == null ? null : toS3Object(key, storedObject);
+    }
+
+    @Override
+    public Stream<S3Object> listObjects(String prefix) {
+        return objects.tailMap(prefix, true).entrySet().stream()
+                .filter(n -> n.getKey().startsWith(prefix))
+                .map(n -> toS3Object(n.getKey(), n.getValue()));
+    }
+
+    @Override
+    public List<Tag> getObjectTags(String key) {
+        StoredObject storedObject = objects.get(key);
+        return storedObject == null ? new ArrayList<>() : new ArrayList<>(storedObject.tags);
+    }
+
+    @Override
+    public void putObjectTags(String key, List<Tag> tags) {
+        if (objects.computeIfPresent(key, (n, stored) -> stored.withTags(new ArrayList<>(tags))) == null){
+            throw NoSuchKeyException.builder().message("No such key: " + key).build();
+        }
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        objects.remove(key);
+    }
+
+    @Override
+    public boolean deleteObjectIfMatch(String key, String ifMatch) {
+        StoredObject storedObject = objects.computeIfPresent(key, (n, stored) -> stored.eTag.equals(ifMatch) ? null : stored);
+        return storedObject == null;
+    }
+
+    @Override
+    public List<String> deleteObjects(List<String> keys) {
+        keys.forEach(objects::remove);
+        return new ArrayList<>();
+    }
+
+    @Override
+    public String createMultipartUpload(String key, List<Tag> tags) {
+        String uploadId = Long.toString(uploadIds.incrementAndGet());
+        uploads.put(uploadId, new PendingUpload(key, new ArrayList<>(tags)));
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, ByteBuffer content) {
+        byte[] part = new byte[content.remaining()];
+        content.duplicate().get(part);
+        getUpload(uploadId).parts.put(partNumber, part);
+        return quote(Checksums.toHex(Checksums.newDigest("MD5").digest(part)));
+    }
+
+    @Override
+    public String completeMultipartUpload(String key, String uploadId, List<String> partETags) {
+        PendingUpload upload = getUpload(uploadId);
+
+        int size = 0;
+        for (byte[] part : upload.parts.values()) {
+            size += part.length;
+        }
+        ByteBuffer content = ByteBuffer.allocate(size);
+        MessageDigest partDigests = Checksums.newDigest("MD5");
+        for (byte[] part : upload.parts.values()) {
+            content.put(part);
+            partDigests.update(Checksums.newDigest("MD5").digest(part));
+        }
+        uploads.remove(uploadId);
+
+        // multipart ETag: MD5 of the concatenated part MD5s and the part count
+        String eTag = quote(Checksums.toHex(partDigests.digest()) + "-" + upload.parts.size());
+        objects.put(key, new StoredObject(content.array(), eTag, upload.tags));
+        return eTag;
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) {
+        uploads.remove(uploadId);
+    }
+
+    @Override
+    public Stream<MultipartUpload> listMultipartUploads() {
+        return uploads.entrySet().stream()
+                .map(n -> MultipartUpload.builder()
+                        .key(n.getValue().key)
+                        .uploadId(n.getKey())
+                        .initiated(n.getValue().initiated)
+                        .build());
+    }
+
+    private String store(String key, byte[] content, List<Tag> tags){
+        String eTag = quote(Checksums.toHex(Checksums.newDigest("MD5").digest(content)));
+        objects.put(key, new StoredObject(content, eTag, new ArrayList<>(tags)));
+        return eTag;
+    }
+
+    private PendingUpload getUpload(String uploadId){
+        PendingUpload upload = uploads.get(uploadId);
+        if (upload == null){
+            throw new IllegalStateException("No such multipart upload: " + uploadId);
+        }
+        return upload;
+    }
+
+    private static S3Object toS3Object(String key, StoredObject storedObject){
+        return S3Object.builder()
+                .key(key)
+                .size((long) storedObject.content.length)
+                .eTag(storedObject.eTag)
+                .lastModified(storedObject.lastModified)
+                .build();
+    }
+
+    private static String quote(String eTag){
+        return "\"" + eTag + "\"";
+    }
+}
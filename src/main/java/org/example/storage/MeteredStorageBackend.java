@@ -0,0 +1,168 @@
+package org.example.storage;
+
+import org.example.TransferMetrics;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Records every call of the wrapped backend in {@link TransferMetrics} under the name of the S3 API call.
+ * A GET is timed until the response body starts, a listing page from the request until its first object.
+ */
+public class MeteredStorageBackend implements StorageBackend {
+    private final StorageBackend storage;
+    private final TransferMetrics metrics;
+
+    public MeteredStorageBackend(StorageBackend storage, TransferMetrics metrics) {
+        this.storage = storage;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getBucketName() {
+        return storage.getBucketName();
+    }
+
+    @Override
+    public boolean bucketExists() {
+        return record("HeadBucket", storage::bucketExists);
+    }
+
+    @Override
+    public void createBucket() {
+        record("CreateBucket", () -> {
+            storage.createBucket();
+            return null;
+        });
+    }
+
+    @Override
+    public String putObject(String key, Path file, List<Tag> tags) throws IOException {
+        return recordIo("PutObject", () -> storage.putObject(key, file, tags));
+    }
+
+    @Override
+    public String putObject(String key, byte[] content, String contentType) {
+        return record("PutObject", () -> storage.putObject(key, content, contentType));
+    }
+
+    @Override
+    public String putObjectIfMatch(String key, byte[] content, String contentType, String ifMatch) {
+        return record("PutObject", () -> storage.putObjectIfMatch(key, content, contentType, ifMatch));
+    }
+
+    @Override
+    public ObjectStream getObject(String key) throws IOException {
+        return recordIo("GetObject", () -> storage.getObject(key));
+    }
+
+    @Override
+    public ObjectStream getObjectRange(String key, long start, long end, String ifMatch) throws IOException {
+        return recordIo("GetObject", () -> storage.getObjectRange(key, start, end, ifMatch));
+    }
+
+    @Override
+    public ObjectContent getObjectContent(String key, String ifNoneMatch) {
+        return record("GetObject", () -> storage.getObjectContent(key, ifNoneMatch));
+    }
+
+    @Override
+    public S3Object headObject(String key) {
+        return record("HeadObject", () -> storage.headObject(key));
+    }
+
+    @Override
+    public Stream<S3Object> listObjects(String prefix) {
+        return ListingPages.wrap(storage.listObjects(prefix), n -> record("ListObjectsV2", n));
+    }
+
+    @Override
+    public List<Tag> getObjectTags(String key) {
+        return record("GetObjectTagging", () -> storage.getObjectTags(key));
+    }
+
+    @Override
+    public void putObjectTags(String key, List<Tag> tags) {
+        record("PutObjectTagging", () -> {
+            storage.putObjectTags(key, tags);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        record("DeleteObject", () -> {
+            storage.deleteObject(key);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean deleteObjectIfMatch(String key, String ifMatch) {
+        return record("DeleteObject", () -> storage.deleteObjectIfMatch(key, ifMatch));
+    }
+
+    @Override
+    public List<String> deleteObjects(List<String> keys) {
+        return record("DeleteObjects", () -> storage.deleteObjects(keys));
+    }
+
+    @Override
+    public String createMultipartUpload(String key, List<Tag> tags) {
+        return record("CreateMultipartUpload", () -> storage.createMultipartUpload(key, tags));
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, ByteBuffer content) {
+        return record("UploadPart", () -> storage.uploadPart(key, uploadId, partNumber, content));
+    }
+
+    @Override
+    public String completeMultipartUpload(String key, String uploadId, List<String> partETags) {
+        return record("CompleteMultipartUpload", () -> storage.completeMultipartUpload(key, uploadId, partETags));
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) {
+        record("AbortMultipartUpload", () -> {
+            storage.abortMultipartUpload(key, uploadId);
+            return null;
+        });
+    }
+
+    @Override
+    public Stream<MultipartUpload> listMultipartUploads() {
+        return record("ListMultipartUploads", storage::listMultipartUploads);
+    }
+
+    private <T> T record(String operation, Supplier<T> call){
+        long startedAt = metrics.start(operation);
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } finally {
+            metrics.finish(operation, startedAt, 0, success);
+        }
+    }
+
+    private <T> T recordIo(String operation, StorageCall<T> call) throws IOException {
+        long startedAt = metrics.start(operation);
+        boolean success = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            metrics.finish(operation, startedAt, 0, success);
+        }
+    }
+}
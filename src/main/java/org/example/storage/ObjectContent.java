@@ -0,0 +1,27 @@
+package org.example.storage;
+
+public class ObjectContent {
+    private final byte[] content;
+    private final String eTag;
+
+    public ObjectContent(byte[] content, String eTag) {
+        this.content = content;
+        this.eTag = eTag;
+    }
+
+    public static ObjectContent notModified(String eTag){
+        return new ObjectContent(null, eTag);
+    }
+
+    public boolean isNotModified(){
+        return content == null;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.storage;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * Content of an object with the server-side encryption it was stored with. The encryption tells whether
+ * the ETag of a single PUT is the MD5 of the content: it is for AES256 (SSE-S3) and unencrypted objects,
+ * not for aws:kms (SSE-KMS) or a customer key (SSE-C).
+ */
+public class ObjectStream extends FilterInputStream {
+    public static final String SSE_AES256 = "AES256";
+    public static final String SSE_CUSTOMER_KEY = "SSE-C"; // S3 answers these with a customer algorithm header only
+
+    private final String serverSideEncryption;
+
+    /**
+     * @param serverSideEncryption e.g. "AES256", "aws:kms" or {@link #SSE_CUSTOMER_KEY}, null when the object is not encrypted
+     */
+    public ObjectStream(InputStream content, String serverSideEncryption) {
+        super(content);
+        this.serverSideEncryption = serverSideEncryption;
+    }
+
+    public String getServerSideEncryption() {
+        return serverSideEncryption;
+    }
+}
@@ -0,0 +1,352 @@
+package org.example.storage;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.waiters.WaiterResponse;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.waiters.S3Waiter;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class S3StorageBackend implements StorageBackend {
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final Region region;
+
+    public S3StorageBackend(S3Client s3Client, String bucketName, Region region) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.region = region;
+    }
+
+    @Override
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    @Override
+    public boolean bucketExists() {
+        // one HeadBucket request instead of listing every bucket of the account
+        try {
+            s3Client.headBucket(HeadBucketRequest.builder()
+                    .bucket(bucketName)
+                    .build());
+            return true;
+        } catch (NoSuchBucketException noSuchBucketException) {
+            return false;
+        } catch (S3Exception s3Exception) {
+            if (s3Exception.statusCode() == HTTP_NOT_FOUND){
+                return false;
+            }
+            throw s3Exception;
+        }
+    }
+
+    // Create a bucket by using a S3Waiter object
+    @Override
+    public void createBucket() {
+        S3Waiter s3Waiter = s3Client.waiter();
+        CreateBucketRequest bucketRequest = CreateBucketRequest.builder()
+                .bucket(bucketName)
+                .createBucketConfiguration(
+                        CreateBucketConfiguration.builder()
+                                .locationConstraint(region.id())
+                                .build())
+                .build();
+
+        s3Client.createBucket(bucketRequest);
+        HeadBucketRequest bucketRequestWait = HeadBucketRequest.builder()
+                .bucket(bucketName)
+                .build();
+
+        // Wait until the bucket is created
+        WaiterResponse<HeadBucketResponse> waiterResponse = s3Waiter.waitUntilBucketExists(bucketRequestWait);
+        waiterResponse.matched().response().ifPresent(n-> System.out.println());
+    }
+
+    @Override
+    public String putObject(String key, Path file, List<Tag> tags) {
+        PutObjectRequest objectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .tagging(Tagging.builder()
+                        .tagSet(new ArrayList<>(tags))
+                        .build())
+                .build();
+
+        return s3Client.putObject(objectRequest, RequestBody.fromFile(file)).eTag();
+    }
+
+    @Override
+    public String putObject(String key, byte[] content, String contentType) {
+        return s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .contentType(contentType)
+                        .build(),
+                RequestBody.fromBytes(content)).eTag();
+    }
+
+    @Override
+    public String putObjectIfMatch(String key, byte[] content, String contentType, String ifMatch) {
+        // this SDK version has no request fields for conditional writes, the headers are set directly
+        String header = ifMatch == null ? "If-None-Match" : "If-Match";
+        String value = ifMatch == null ? "*" : ifMatch;
+        try {
+            return s3Client.putObject(PutObjectRequest.builder()
+                            .bucket(bucketName)
+                            .key(key)
+                            .contentType(contentType)
+                            .overrideConfiguration(configuration -> configuration.putHeader(header, value))
+                            .build(),
+                    RequestBody.fromBytes(content)).eTag();
+        } catch (S3Exception s3Exception) {
+            // 409 when a concurrent conditional write to the same key is still in progress
+            if (s3Exception.statusCode() == HTTP_PRECONDITION_FAILED || s3Exception.statusCode() == HTTP_CONFLICT){
+                return null;
+            }
+            throw s3Exception;
+        }
+    }
+
+    @Override
+    public ObjectStream getObject(String key) throws IOException {
+        try {
+            return toObjectStream(s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build()));
+        } catch (NoSuchKeyException noSuchKeyException) {
+            throw new NoSuchFileException(key);
+        }
+    }
+
+    @Override
+    public ObjectStream getObjectRange(String key, long start, long end, String ifMatch) throws IOException {
+        try {
+            return toObjectStream(s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .range("bytes=" + start + "-" + end)
+                    .ifMatch(ifMatch)
+                    .build()));
+        } catch (NoSuchKeyException noSuchKeyException) {
+            throw new NoSuchFileException(key);
+        }
+    }
+
+    private static ObjectStream toObjectStream(ResponseInputStream<GetObjectResponse> response){
+        GetObjectResponse getObjectResponse = response.response();
+        return new ObjectStream(response, getObjectResponse.sseCustomerAlgorithm() != null
+                ? ObjectStream.SSE_CUSTOMER_KEY
+                : getObjectResponse.serverSideEncryptionAsString());
+    }
+
+    @Override
+    public ObjectContent getObjectContent(String key, String ifNoneMatch) {
+        try {
+            ResponseBytes<GetObjectResponse> objectBytes = s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .ifNoneMatch(ifNoneMatch)
+                    .build());
+            return new ObjectContent(objectBytes.asByteArray(), objectBytes.response().eTag());
+        } catch (NoSuchKeyException noSuchKeyException) {
+            return null;
+        } catch (S3Exception s3Exception) {
+            if (ifNoneMatch != null && s3Exception.statusCode() == HTTP_NOT_MODIFIED){
+                return ObjectContent.notModified(ifNoneMatch);
+            }
+            throw s3Exception;
+        }
+    }
+
+    @Override
+    public S3Object headObject(String key) {
+        try {
+            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build());
+            return S3Object.builder()
+                    .key(key)
+                    .size(response.contentLength())
+                    .eTag(response.eTag())
+                    .lastModified(response.lastModified())
+                    .build();
+        } catch (NoSuchKeyException noSuchKeyException) {
+            return null;
+        }
+    }
+
+    @Override
+    public Stream<S3Object> listObjects(String prefix) {
+        return s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                        .bucket(bucketName)
+                        .prefix(prefix.isEmpty() ? null : prefix)
+                        .build())
+                .contents()
+                .stream();
+    }
+
+    @Override
+    public List<Tag> getObjectTags(String key) {
+        return s3Client.getObjectTagging(GetObjectTaggingRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build()).tagSet();
+    }
+
+    @Override
+    public void putObjectTags(String key, List<Tag> tags) {
+        s3Client.putObjectTagging(PutObjectTaggingRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .tagging(Tagging.builder()
+                        .tagSet(new ArrayList<>(tags))
+                        .build())
+                .build());
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        s3Client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+    }
+
+    @Override
+    public boolean deleteObjectIfMatch(String key, String ifMatch) {
+        try {
+            s3Client.deleteObject(DeleteObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .overrideConfiguration(configuration -> configuration.putHeader("If-Match", ifMatch))
+                    .build());
+            return true;
+        } catch (NoSuchKeyException noSuchKeyException) {
+            return true;
+        } catch (S3Exception s3Exception) {
+            if (s3Exception.statusCode() == HTTP_NOT_FOUND){
+                return true;
+            }
+            if (s3Exception.statusCode() == HTTP_PRECONDITION_FAILED || s3Exception.statusCode() == HTTP_CONFLICT){
+                return false;
+            }
+            throw s3Exception;
+        }
+    }
+
+    @Override
+    public List<String> deleteObjects(List<String> keys) {
+        List<ObjectIdentifier> objects = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            objects.add(ObjectIdentifier.builder().key(key).build());
+        }
+
+        // quiet mode, the response lists failed keys only
+        return s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                        .bucket(bucketName)
+                        .delete(Delete.builder().objects(objects).quiet(true).build())
+                        .build())
+                .errors().stream()
+                .map(S3Error::key)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public String createMultipartUpload(String key, List<Tag> tags) {
+        return s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .tagging(toTagging(tags))
+                .build()).uploadId();
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, ByteBuffer content) {
+        int length = content.remaining();
+        return s3Client.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) length)
+                        .build(),
+                RequestBody.fromContentProvider(() -> new ByteBufferInputStream(content.duplicate()),
+                        length, "application/octet-stream")).eTag();
+    }
+
+    @Override
+    public String completeMultipartUpload(String key, String uploadId, List<String> partETags) {
+        List<CompletedPart> completedParts = new ArrayList<>(partETags.size());
+        for (int i = 0; i < partETags.size(); i++) {
+            completedParts.add(CompletedPart.builder()
+                    .partNumber(i + 1)
+                    .eTag(partETags.get(i))
+                    .build());
+        }
+
+        return s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build()).eTag();
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) {
+        s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .build());
+    }
+
+    @Override
+    public Stream<MultipartUpload> listMultipartUploads() {
+        return s3Client.listMultipartUploadsPaginator(ListMultipartUploadsRequest.builder()
+                        .bucket(bucketName)
+                        .build())
+                .uploads()
+                .stream();
+    }
+
+    // tag set in the URL query format used by the x-amz-tagging header
+    private static String toTagging(List<Tag> tags){
+        StringBuilder tagging = new StringBuilder();
+        try {
+            for (Tag tag : tags) {
+                if (tagging.length() > 0){
+                    tagging.append('&');
+                }
+                tagging.append(URLEncoder.encode(tag.key(), StandardCharsets.UTF_8.name()).replace("+", "%20"))
+                        .append('=')
+                        .append(URLEncoder.encode(tag.value(), StandardCharsets.UTF_8.name()).replace("+", "%20"));
+            }
+        } catch (UnsupportedEncodingException unsupportedEncodingException) {
+            throw new IllegalStateException(unsupportedEncodingException);
+        }
+        return tagging.toString();
+    }
+}
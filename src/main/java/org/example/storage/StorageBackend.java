@@ -0,0 +1,114 @@
+package org.example.storage;
+
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Object storage the application works with: a single bucket of tagged objects.
+ * S3 model classes are used as plain value types, so every backend describes objects the same way.
+ * ETags are returned the way S3 returns them, in double quotes.
+ */
+public interface StorageBackend {
+    int MAX_DELETE_KEYS = 1000; // limit of one DeleteObjects request
+
+    String getBucketName();
+
+    boolean bucketExists();
+
+    void createBucket();
+
+    /**
+     * @return ETag of the stored object
+     */
+    String putObject(String key, Path file, List<Tag> tags) throws IOException;
+
+    String putObject(String key, byte[] content, String contentType);
+
+    /**
+     * Conditional write: stores the object only if it still has the ETag {@code ifMatch}, or only if there is
+     * no such object yet when {@code ifMatch} is null.
+     *
+     * @return ETag of the stored object, null when another writer changed the object first
+     */
+    String putObjectIfMatch(String key, byte[] content, String contentType, String ifMatch);
+
+    /**
+     * Streams the object content and tells its server-side encryption, the caller closes the stream.
+     *
+     * @throws java.nio.file.NoSuchFileException when there is no such object
+     */
+    ObjectStream getObject(String key) throws IOException;
+
+    /**
+     * Streams bytes {@code start} to {@code end} inclusive of the object, the caller closes the stream.
+     *
+     * @param ifMatch ETag the object must still have or null, another ETag fails the request with 412
+     * @throws java.nio.file.NoSuchFileException when there is no such object
+     */
+    ObjectStream getObjectRange(String key, long start, long end, String ifMatch) throws IOException;
+
+    /**
+     * Whole object in memory, meant for small objects such as album indexes.
+     *
+     * @param ifNoneMatch ETag of a cached copy or null
+     * @return null when there is no such object, content without bytes when the object still has the ETag {@code ifNoneMatch}
+     */
+    ObjectContent getObjectContent(String key, String ifNoneMatch);
+
+    /**
+     * @return key, size and ETag of the object or null when there is no such object
+     */
+    S3Object headObject(String key);
+
+    /**
+     * Objects whose key starts with {@code prefix} in key order, pages are requested lazily while the stream is consumed.
+     */
+    Stream<S3Object> listObjects(String prefix);
+
+    List<Tag> getObjectTags(String key);
+
+    /**
+     * Replaces the whole tag set of the object.
+     */
+    void putObjectTags(String key, List<Tag> tags);
+
+    void deleteObject(String key);
+
+    /**
+     * Conditional delete: removes the object only if it still has the ETag {@code ifMatch}.
+     *
+     * @return false when another writer changed the object first, true when it is deleted or was already gone
+     */
+    boolean deleteObjectIfMatch(String key, String ifMatch);
+
+    /**
+     * Deletes up to {@link #MAX_DELETE_KEYS} objects with a single request, keys of missing objects count as deleted.
+     *
+     * @return keys that could not be deleted
+     */
+    List<String> deleteObjects(List<String> keys);
+
+    String createMultipartUpload(String key, List<Tag> tags);
+
+    /**
+     * @return ETag of the part
+     */
+    String uploadPart(String key, String uploadId, int partNumber, ByteBuffer content);
+
+    /**
+     * @param partETags ETags of parts 1..n in part number order
+     * @return ETag of the assembled object
+     */
+    String completeMultipartUpload(String key, String uploadId, List<String> partETags);
+
+    void abortMultipartUpload(String key, String uploadId);
+
+    Stream<MultipartUpload> listMultipartUploads();
+}
@@ -0,0 +1,10 @@
+package org.example.storage;
+
+import java.io.IOException;
+
+/**
+ * A backend call that may fail with an I/O error, run by the decorating backends.
+ */
+interface StorageCall<T> {
+    T call() throws IOException;
+}
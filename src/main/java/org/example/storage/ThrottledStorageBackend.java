@@ -0,0 +1,173 @@
+package org.example.storage;
+
+import org.example.AdaptiveConcurrencyLimiter;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.services.s3.model.MultipartUpload;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Lets every call of the wrapped backend wait for a slot of the {@link AdaptiveConcurrencyLimiter}, whatever
+ * thread pool it comes from, so transfers, multipart parts and tag lookups share one request budget.
+ * A slot is held until the response starts, a download body is streamed without it.
+ */
+public class ThrottledStorageBackend implements StorageBackend {
+    private final StorageBackend storage;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ThrottledStorageBackend(StorageBackend storage, AdaptiveConcurrencyLimiter limiter) {
+        this.storage = storage;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public String getBucketName() {
+        return storage.getBucketName();
+    }
+
+    @Override
+    public boolean bucketExists() {
+        return call(storage::bucketExists);
+    }
+
+    @Override
+    public void createBucket() {
+        call(() -> {
+            storage.createBucket();
+            return null;
+        });
+    }
+
+    @Override
+    public String putObject(String key, Path file, List<Tag> tags) throws IOException {
+        return callIo(() -> storage.putObject(key, file, tags));
+    }
+
+    @Override
+    public String putObject(String key, byte[] content, String contentType) {
+        return call(() -> storage.putObject(key, content, contentType));
+    }
+
+    @Override
+    public String putObjectIfMatch(String key, byte[] content, String contentType, String ifMatch) {
+        return call(() -> storage.putObjectIfMatch(key, content, contentType, ifMatch));
+    }
+
+    @Override
+    public ObjectStream getObject(String key) throws IOException {
+        return callIo(() -> storage.getObject(key));
+    }
+
+    @Override
+    public ObjectStream getObjectRange(String key, long start, long end, String ifMatch) throws IOException {
+        return callIo(() -> storage.getObjectRange(key, start, end, ifMatch));
+    }
+
+    @Override
+    public ObjectContent getObjectContent(String key, String ifNoneMatch) {
+        return call(() -> storage.getObjectContent(key, ifNoneMatch));
+    }
+
+    @Override
+    public S3Object headObject(String key) {
+        return call(() -> storage.headObject(key));
+    }
+
+    @Override
+    public Stream<S3Object> listObjects(String prefix) {
+        return ListingPages.wrap(storage.listObjects(prefix), this::call);
+    }
+
+    @Override
+    public List<Tag> getObjectTags(String key) {
+        return call(() -> storage.getObjectTags(key));
+    }
+
+    @Override
+    public void putObjectTags(String key, List<Tag> tags) {
+        call(() -> {
+            storage.putObjectTags(key, tags);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        call(() -> {
+            storage.deleteObject(key);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean deleteObjectIfMatch(String key, String ifMatch) {
+        return call(() -> storage.deleteObjectIfMatch(key, ifMatch));
+    }
+
+    @Override
+    public List<String> deleteObjects(List<String> keys) {
+        return call(() -> storage.deleteObjects(keys));
+    }
+
+    @Override
+    public String createMultipartUpload(String key, List<Tag> tags) {
+        return call(() -> storage.createMultipartUpload(key, tags));
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, ByteBuffer content) {
+        return call(() -> storage.uploadPart(key, uploadId, partNumber, content));
+    }
+
+    @Override
+    public String completeMultipartUpload(String key, String uploadId, List<String> partETags) {
+        return call(() -> storage.completeMultipartUpload(key, uploadId, partETags));
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) {
+        call(() -> {
+            storage.abortMultipartUpload(key, uploadId);
+            return null;
+        });
+    }
+
+    @Override
+    public Stream<MultipartUpload> listMultipartUploads() {
+        return call(storage::listMultipartUploads);
+    }
+
+    private <T> T call(Supplier<T> call){
+        acquire();
+        try {
+            return call.get();
+        } finally {
+            limiter.release();
+        }
+    }
+
+    private <T> T callIo(StorageCall<T> call) throws IOException {
+        acquire();
+        try {
+            return call.call();
+        } finally {
+            limiter.release();
+        }
+    }
+
+    private void acquire(){
+        try {
+            limiter.acquire();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw AbortedException.builder().message("Interrupted while waiting for a request slot").build();
+        }
+    }
+}
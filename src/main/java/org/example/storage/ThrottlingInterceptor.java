@@ -0,0 +1,46 @@
+package org.example.storage;
+
+import org.example.AdaptiveConcurrencyLimiter;
+import org.example.TransferMetrics;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.core.internal.InternalCoreExecutionAttribute;
+
+/**
+ * Feeds the answer of every HTTP attempt, retries included, to the request limiter: SlowDown (503) shrinks it,
+ * a successful answer lets it grow. Every attempt after the first is counted as a retry of the S3 call.
+ */
+public class ThrottlingInterceptor implements ExecutionInterceptor {
+    private static final int HTTP_SLOW_DOWN = 503;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_CLIENT_ERROR = 400;
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final TransferMetrics metrics;
+
+    public ThrottlingInterceptor(AdaptiveConcurrencyLimiter limiter, TransferMetrics metrics) {
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    // the SDK numbers the attempts of a call from 1, whatever made it retry
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        Integer attempt = executionAttributes.getAttribute(InternalCoreExecutionAttribute.EXECUTION_ATTEMPT);
+        if (attempt != null && attempt > 1){
+            metrics.retry(executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        int statusCode = context.httpResponse().statusCode();
+        if (statusCode == HTTP_SLOW_DOWN){
+            limiter.onThrottle();
+        }else if (statusCode >= HTTP_OK && statusCode < HTTP_CLIENT_ERROR){
+            limiter.onSuccess();
+        }
+    }
+}